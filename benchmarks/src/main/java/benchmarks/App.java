@@ -0,0 +1,144 @@
+package benchmarks;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * 被测代码位于默认包，而 JMH 要求基准类在具名包中，Java 又不允许从具名包引用默认包的类，
+ * 所以这里用 MethodHandle 访问被测代码。句柄是 static final 的，JIT 会内联，不影响测量结果
+ */
+final class App {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    // ImageCompressor
+    static final MethodHandle NEW_COMPRESSOR;       // () -> ImageCompressor
+    static final MethodHandle SET_QUALITY;          // (ImageCompressor, float) -> void
+    static final MethodHandle COMPRESS_REGION;      // (ImageCompressor, BufferedImage, Rectangle, OutputStream) -> int
+
+    // 编解码器
+    static final MethodHandle CODEC_FOR_THREAD;     // (int) -> FrameCodec
+    static final MethodHandle CODEC_ENCODE;         // (FrameCodec, BufferedImage, Rectangle, OutputStream) -> int
+    static final MethodHandle CODEC_DECODE;         // (FrameCodec, byte[], int, int, BufferedImage, Rectangle) -> void
+
+    // ReusableOutputStream
+    static final MethodHandle NEW_REUSABLE_OUTPUT;  // (int) -> ReusableOutputStream
+
+    // 输入命令
+    static final MethodHandle NEW_MOUSE_EVENT;      // (int, int, int, int) -> MouseEventData
+    static final MethodHandle MOUSE_WRITE_TO;       // (MouseEventData, DataOutput) -> void
+    static final MethodHandle MOUSE_READ_FROM;      // (DataInput) -> MouseEventData
+    static final MethodHandle MOUSE_GET_X;          // (MouseEventData) -> int
+
+    // 并行编码
+    static final MethodHandle ENCODE_TILES;         // (BufferedImage, List, int, float) -> List<EncodedFrame.Tile>
+
+    // 缩放
+    static final MethodHandle SCALE_QUALITY;        // (String) -> ImageScaler.Quality
+    static final MethodHandle NEW_SCALER;           // (ImageScaler.Quality, int, int) -> ImageScaler
+    static final MethodHandle SCALE;                // (ImageScaler, BufferedImage) -> BufferedImage
+
+    // 帧
+    static final MethodHandle NEW_TILE;             // (Rectangle, int, byte[], int, int) -> EncodedFrame.Tile
+    static final MethodHandle NEW_FRAME;            // (long, Dimension, List) -> EncodedFrame
+    static final MethodHandle FRAME_WRITE_TO;       // (EncodedFrame, DataOutput) -> void
+
+    // 协议常量
+    static final int MSG_FRAME_FULL;
+    static final int MSG_FRAME_TILES;
+    static final int MSG_FRAME_END;
+    static final int MSG_FRAME_COPY;
+    static final int CODEC_JPEG;
+
+    static {
+        try {
+            Class<?> compressor = Class.forName("ImageCompressor");
+            NEW_COMPRESSOR = generic(LOOKUP.findConstructor(compressor, MethodType.methodType(void.class)));
+            SET_QUALITY = generic(LOOKUP.findVirtual(compressor, "setQuality",
+                    MethodType.methodType(void.class, float.class)));
+            COMPRESS_REGION = generic(LOOKUP.findVirtual(compressor, "compressImage",
+                    MethodType.methodType(int.class, BufferedImage.class, Rectangle.class, OutputStream.class)));
+
+            Class<?> codec = Class.forName("FrameCodec");
+            CODEC_FOR_THREAD = generic(LOOKUP.findStatic(Class.forName("FrameCodecs"), "forCurrentThread",
+                    MethodType.methodType(codec, int.class)));
+            CODEC_ENCODE = generic(LOOKUP.findVirtual(codec, "encode",
+                    MethodType.methodType(int.class, BufferedImage.class, Rectangle.class, OutputStream.class)));
+            CODEC_DECODE = generic(LOOKUP.findVirtual(codec, "decode", MethodType.methodType(void.class,
+                    byte[].class, int.class, int.class, BufferedImage.class, Rectangle.class)));
+
+            Class<?> reusable = Class.forName("ReusableOutputStream");
+            NEW_REUSABLE_OUTPUT = LOOKUP.findConstructor(reusable, MethodType.methodType(void.class, int.class))
+                    .asType(MethodType.methodType(ByteArrayOutputStream.class, int.class));
+
+            Class<?> mouse = Class.forName("MouseEventData");
+            NEW_MOUSE_EVENT = generic(LOOKUP.findConstructor(mouse,
+                    MethodType.methodType(void.class, int.class, int.class, int.class, int.class)));
+            MOUSE_WRITE_TO = generic(LOOKUP.findVirtual(mouse, "writeTo",
+                    MethodType.methodType(void.class, DataOutput.class)));
+            MOUSE_READ_FROM = generic(LOOKUP.findStatic(mouse, "readFrom",
+                    MethodType.methodType(mouse, DataInput.class)));
+            MOUSE_GET_X = generic(LOOKUP.findVirtual(mouse, "getX", MethodType.methodType(int.class)));
+
+            ENCODE_TILES = generic(LOOKUP.findStatic(Class.forName("ScreenBroadcaster"), "encodeTiles",
+                    MethodType.methodType(List.class, BufferedImage.class, List.class, int.class, float.class)));
+
+            Class<?> scaler = Class.forName("ImageScaler");
+            Class<?> quality = Class.forName("ImageScaler$Quality");
+            SCALE_QUALITY = generic(LOOKUP.findStatic(quality, "valueOf", MethodType.methodType(quality, String.class)));
+            NEW_SCALER = generic(LOOKUP.findConstructor(scaler,
+                    MethodType.methodType(void.class, quality, int.class, int.class)));
+            SCALE = generic(LOOKUP.findVirtual(scaler, "scale",
+                    MethodType.methodType(BufferedImage.class, BufferedImage.class)));
+
+            Class<?> tile = Class.forName("EncodedFrame$Tile");
+            Class<?> frame = Class.forName("EncodedFrame");
+            NEW_TILE = generic(LOOKUP.findConstructor(tile,
+                    MethodType.methodType(void.class, Rectangle.class, int.class, byte[].class, int.class, int.class)));
+            NEW_FRAME = generic(LOOKUP.findConstructor(frame,
+                    MethodType.methodType(void.class, long.class, Dimension.class, List.class)));
+            FRAME_WRITE_TO = generic(LOOKUP.findVirtual(frame, "writeTo",
+                    MethodType.methodType(void.class, DataOutput.class)));
+
+            Class<?> protocol = Class.forName("Protocol");
+            MSG_FRAME_FULL = protocol.getField("MSG_FRAME_FULL").getInt(null);
+            MSG_FRAME_TILES = protocol.getField("MSG_FRAME_TILES").getInt(null);
+            MSG_FRAME_END = protocol.getField("MSG_FRAME_END").getInt(null);
+            MSG_FRAME_COPY = protocol.getField("MSG_FRAME_COPY").getInt(null);
+            CODEC_JPEG = protocol.getField("CODEC_JPEG").getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App() {
+    }
+
+    /**
+     * 把句柄中出现的被测类型都换成 Object，调用处用 invokeExact 即可
+     */
+    private static MethodHandle generic(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isAppClass(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isAppClass(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isAppClass(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getName().indexOf('.') < 0;
+    }
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各编解码器对单个瓦片的编解码耗时，编码后大小在准备阶段打印，
+ * 用来校验“颜色少用无损、颜色多用JPEG”的选择规则
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    // 编号见 Protocol.CODEC_*：0=JPEG，1=PNG，2=Deflate
+    @Param({"0", "1", "2"})
+    public int codec;
+
+    @Param({"text", "photo"})
+    public String content;
+
+    private BufferedImage frame;
+    private BufferedImage target;
+    private Rectangle region;
+    private Object encoder;
+    private ByteArrayOutputStream out;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Throwable {
+        frame = Frames.synthetic("1920x1080", content);
+        target = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+        region = new Rectangle(128, 128, 256, 64);
+        encoder = (Object) App.CODEC_FOR_THREAD.invokeExact(codec);
+        out = (ByteArrayOutputStream) App.NEW_REUSABLE_OUTPUT.invokeExact(1024 * 1024);
+        int length = (int) App.CODEC_ENCODE.invokeExact(encoder, frame, region, (OutputStream) out);
+        if (length == 0) {
+            throw new IllegalStateException("编码结果为空");
+        }
+        encoded = out.toByteArray();
+        System.out.println("codec=" + codec + " content=" + content + " encodedBytes=" + length);
+    }
+
+    @Benchmark
+    public int encodeTile() throws Throwable {
+        out.reset();
+        return (int) App.CODEC_ENCODE.invokeExact(encoder, frame, region, (OutputStream) out);
+    }
+
+    @Benchmark
+    public BufferedImage decodeTile() throws Throwable {
+        App.CODEC_DECODE.invokeExact(encoder, encoded, 0, encoded.length, target, region);
+        return target;
+    }
+}
@@ -0,0 +1,83 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端解码耗时：旧的 ImageIO.read 每帧新建图像，与 FrameDecoder 的做法（直接解码进复用的后台缓冲）对比
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"text", "photo"})
+    public String content;
+
+    private byte[] jpeg;
+    private BufferedImage backBuffer;
+    private ImageReader reader;
+    private final Point origin = new Point(0, 0);
+
+    @Setup
+    public void setup() throws Throwable {
+        BufferedImage frame = Frames.synthetic(resolution, content);
+        Object compressor = (Object) App.NEW_COMPRESSOR.invokeExact();
+        App.SET_QUALITY.invokeExact(compressor, 0.8f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Rectangle full = new Rectangle(0, 0, frame.getWidth(), frame.getHeight());
+        int length = (int) App.COMPRESS_REGION.invokeExact(compressor, frame, full, (OutputStream) out);
+        if (length == 0) {
+            throw new IllegalStateException("编码结果为空");
+        }
+        jpeg = out.toByteArray();
+        backBuffer = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+        reader = ImageIO.getImageReadersByFormatName("jpg").next();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage imageIoRead() throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+    @Benchmark
+    public BufferedImage decodeIntoBackBuffer() throws Exception {
+        reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(jpeg)), true, true);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setDestination(backBuffer);
+        param.setDestinationOffset(origin);
+        return reader.read(0, param);
+    }
+}
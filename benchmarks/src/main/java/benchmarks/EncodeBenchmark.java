@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ImageCompressor 的JPEG编码耗时：整帧和单个瓦片，不同分辨率、质量和画面内容
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"0.5", "0.8", "0.99"})
+    public float quality;
+
+    @Param({"text", "photo"})
+    public String content;
+
+    private BufferedImage frame;
+    private Rectangle fullRegion;
+    private Rectangle tileRegion;
+    private Object compressor;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws Throwable {
+        frame = Frames.synthetic(resolution, content);
+        fullRegion = new Rectangle(0, 0, frame.getWidth(), frame.getHeight());
+        tileRegion = new Rectangle(64, 64, 256, 64);
+        compressor = (Object) App.NEW_COMPRESSOR.invokeExact();
+        App.SET_QUALITY.invokeExact(compressor, quality);
+        out = (ByteArrayOutputStream) App.NEW_REUSABLE_OUTPUT.invokeExact(1024 * 1024);
+    }
+
+    @Benchmark
+    public int encodeFullFrame() throws Throwable {
+        out.reset();
+        return (int) App.COMPRESS_REGION.invokeExact(compressor, frame, fullRegion, (OutputStream) out);
+    }
+
+    @Benchmark
+    public int encodeTile() throws Throwable {
+        out.reset();
+        return (int) App.COMPRESS_REGION.invokeExact(compressor, frame, tileRegion, (OutputStream) out);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * 生成与 Robot 截屏相同类型（TYPE_INT_RGB）的合成画面，无需图形桌面
+ */
+final class Frames {
+    private Frames() {
+    }
+
+    /**
+     * @param resolution 形如 1920x1080
+     * @param content text（白底文字，类似代码编辑器）或 photo（渐变加噪声，类似照片视频）
+     */
+    static BufferedImage synthetic(String resolution, String content) {
+        String[] parts = resolution.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        if ("photo".equals(content)) {
+            paintPhoto(image);
+        } else {
+            paintText(image);
+        }
+        return image;
+    }
+
+    private static void paintText(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        Random random = new Random(42);
+        String line = "    public void sendMouseMove(int x, int y) throws IOException { out.writeByte(cmd); }";
+        for (int y = 16; y < image.getHeight(); y += 18) {
+            g.setColor(random.nextInt(4) == 0 ? new Color(0, 0, 160) : Color.BLACK);
+            int indent = random.nextInt(6) * 16;
+            g.drawString(line, indent, y);
+        }
+        g.dispose();
+    }
+
+    private static void paintPhoto(BufferedImage image) {
+        Random random = new Random(42);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + random.nextInt(24)) & 0xFF;
+                int g = (y * 255 / height + random.nextInt(24)) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + random.nextInt(24)) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+    }
+}
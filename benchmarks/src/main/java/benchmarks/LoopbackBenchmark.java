@@ -0,0 +1,159 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端回环延迟：服务端按协议写出一帧，本机另一端读完整帧（直到 MSG_FRAME_END）后回一个字节，
+ * 测量从开始写到收到回复的时间分布
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+    /**
+     * keyframe：1080p 整帧；tiles：8 个 256x64 的变化区域
+     */
+    @Param({"keyframe", "tiles"})
+    public String frameKind;
+
+    private ServerSocket listener;
+    private Socket serverSide;
+    private Socket clientSide;
+    private DataOutputStream out;
+    private DataInputStream ackIn;
+    private Thread reader;
+    private Object frame;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        frame = buildFrame();
+
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        clientSide = new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort());
+        serverSide = listener.accept();
+        serverSide.setTcpNoDelay(true);
+        clientSide.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(serverSide.getOutputStream()));
+        ackIn = new DataInputStream(serverSide.getInputStream());
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(clientSide.getInputStream()));
+        OutputStream ackOut = clientSide.getOutputStream();
+        reader = new Thread(() -> readFrames(in, ackOut), "loopback-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        clientSide.close();
+        serverSide.close();
+        listener.close();
+    }
+
+    @Benchmark
+    public int sendFrame() throws Throwable {
+        App.FRAME_WRITE_TO.invokeExact(frame, (DataOutput) out);
+        out.flush();
+        return ackIn.read();
+    }
+
+    /**
+     * 与 Client 接收循环相同的读取方式
+     */
+    private static void readFrames(DataInputStream in, OutputStream ackOut) {
+        byte[] buffer = new byte[4 * 1024 * 1024];
+        try {
+            while (true) {
+                int type = in.readInt();
+                if (type == App.MSG_FRAME_FULL) {
+                    in.readInt();
+                    in.readInt();
+                } else if (type == App.MSG_FRAME_TILES) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        in.readInt();
+                        in.readInt();
+                        in.readInt();
+                        in.readInt();
+                        in.readUnsignedByte();
+                        in.readLong();
+                        in.readFully(buffer, 0, in.readInt());
+                    }
+                } else if (type == App.MSG_FRAME_COPY) {
+                    in.readFully(buffer, 0, in.readInt() * 24);
+                } else if (type == App.MSG_FRAME_END) {
+                    in.readInt();
+                    ackOut.write(1);
+                    ackOut.flush();
+                } else {
+                    throw new IOException("未知的消息类型: " + type);
+                }
+            }
+        } catch (IOException e) {
+            // 连接在 tearDown 中关闭
+        }
+    }
+
+    private Object buildFrame() throws Throwable {
+        BufferedImage image = Frames.synthetic("1920x1080", "text");
+        Object compressor = (Object) App.NEW_COMPRESSOR.invokeExact();
+        App.SET_QUALITY.invokeExact(compressor, 0.8f);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        List<Rectangle> regions = new ArrayList<>();
+        if ("keyframe".equals(frameKind)) {
+            regions.add(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        } else {
+            for (int i = 0; i < 8; i++) {
+                regions.add(new Rectangle(128, 64 + i * 128, 256, 64));
+            }
+        }
+        int[] offsets = new int[regions.size() + 1];
+        for (int i = 0; i < regions.size(); i++) {
+            int length = (int) App.COMPRESS_REGION.invokeExact(compressor, image, regions.get(i), (OutputStream) data);
+            offsets[i + 1] = offsets[i] + length;
+        }
+        byte[] bytes = data.toByteArray();
+
+        List<Object> tiles = new ArrayList<>();
+        for (int i = 0; i < regions.size(); i++) {
+            tiles.add((Object) App.NEW_TILE.invokeExact(regions.get(i), App.CODEC_JPEG, bytes,
+                    offsets[i], offsets[i + 1] - offsets[i]));
+        }
+        Dimension keyFrameSize = "keyframe".equals(frameKind) ? new Dimension(image.getWidth(), image.getHeight()) : null;
+        return (Object) App.NEW_FRAME.invokeExact(1L, keyFrameSize, (List) tiles);
+    }
+}
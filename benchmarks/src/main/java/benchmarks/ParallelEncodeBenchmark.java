@@ -0,0 +1,55 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整帧按条带并行编码（ScreenBroadcaster.encodeTiles）的耗时随工作线程数的变化。
+ * 线程数在类初始化时读取，每组参数在单独的 fork 中运行，所以在准备阶段设置系统属性即可
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelEncodeBenchmark {
+    @Param({"1", "2", "4", "8"})
+    public String workers;
+
+    @Param({"1920x1080", "3840x2160"})
+    public String resolution;
+
+    @Param({"text", "photo"})
+    public String content;
+
+    private BufferedImage frame;
+    private List<Rectangle> regions;
+
+    @Setup
+    public void setup() {
+        System.setProperty("remote.workers", workers);
+        frame = Frames.synthetic(resolution, content);
+        regions = Collections.singletonList(new Rectangle(0, 0, frame.getWidth(), frame.getHeight()));
+    }
+
+    @Benchmark
+    public List<?> encodeFrame() throws Throwable {
+        return (List<?>) App.ENCODE_TILES.invokeExact(frame, regions, 1 << App.CODEC_JPEG, 0.8f);
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 输入命令的编码、解码和往返耗时（MouseEventData 的 varint 格式）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream out;
+    private byte[] encoded;
+    private Object event;
+    private int x;
+
+    @Setup
+    public void setup() throws Throwable {
+        bytes = new ByteArrayOutputStream(64);
+        out = new DataOutputStream(bytes);
+        event = (Object) App.NEW_MOUSE_EVENT.invokeExact(1919, 1079, 1, 0);
+        App.MOUSE_WRITE_TO.invokeExact(event, (DataOutput) out);
+        encoded = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int encodeMouseEvent() throws Throwable {
+        bytes.reset();
+        App.MOUSE_WRITE_TO.invokeExact(event, (DataOutput) out);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public Object decodeMouseEvent() throws Throwable {
+        DataInput in = new DataInputStream(new ByteArrayInputStream(encoded));
+        return (Object) App.MOUSE_READ_FROM.invokeExact(in);
+    }
+
+    @Benchmark
+    public int roundTripMouseMove() throws Throwable {
+        x = (x + 1) & 0xFFF;
+        Object move = (Object) App.NEW_MOUSE_EVENT.invokeExact(x, 540, 0, 0);
+        bytes.reset();
+        App.MOUSE_WRITE_TO.invokeExact(move, (DataOutput) out);
+        DataInput in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Object decoded = (Object) App.MOUSE_READ_FROM.invokeExact(in);
+        return (int) App.MOUSE_GET_X.invokeExact(decoded);
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端把4K画面缩小到客户端窗口大小的耗时，以及缩小后再JPEG编码整帧的耗时
+ * （与 EncodeBenchmark 中 3840x2160 的 encodeFullFrame 比较）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScaleBenchmark {
+    @Param({"NEAREST", "BILINEAR", "BOX"})
+    public String quality;
+
+    @Param({"1280x720", "1920x1080"})
+    public String viewport;
+
+    @Param({"text", "photo"})
+    public String content;
+
+    private BufferedImage frame;
+    private Object scaler;
+    private Object encoder;
+    private Rectangle scaledRegion;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws Throwable {
+        frame = Frames.synthetic("3840x2160", content);
+        String[] parts = viewport.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        scaler = (Object) App.NEW_SCALER.invokeExact((Object) App.SCALE_QUALITY.invokeExact(quality), width, height);
+        scaledRegion = new Rectangle(0, 0, width, height);
+        encoder = (Object) App.CODEC_FOR_THREAD.invokeExact(App.CODEC_JPEG);
+        out = (ByteArrayOutputStream) App.NEW_REUSABLE_OUTPUT.invokeExact(4 * 1024 * 1024);
+    }
+
+    @Benchmark
+    public BufferedImage scale() throws Throwable {
+        return (BufferedImage) App.SCALE.invokeExact(scaler, frame);
+    }
+
+    @Benchmark
+    public int scaleAndEncode() throws Throwable {
+        BufferedImage scaled = (BufferedImage) App.SCALE.invokeExact(scaler, frame);
+        out.reset();
+        return (int) App.CODEC_ENCODE.invokeExact(encoder, scaled, scaledRegion, (OutputStream) out);
+    }
+}
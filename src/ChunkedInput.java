@@ -0,0 +1,73 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 客户端从连接中分离出帧数据：MSG_FRAME_CHUNK 块的内容连成一个输入流，接收线程照原来的帧格式解析；
+ * 块之间的控制消息（指针位置、画面信息）在读到时立即交给 handler 处理，不必等所在的帧收完
+ */
+public class ChunkedInput extends InputStream {
+    /**
+     * 处理一条控制消息
+     */
+    public interface ControlHandler {
+        /**
+         * @param messageType 消息类型（已读出）
+         * @param in 读取该消息其余字段的输入
+         * @throws IOException 读取失败或消息类型未知
+         */
+        void handle(int messageType, DataInputStream in) throws IOException;
+    }
+
+    private final DataInputStream in;
+    private final ControlHandler handler;
+    private int remaining = 0;      // 当前块中还未读出的字节数
+
+    public ChunkedInput(DataInputStream in, ControlHandler handler) {
+        this.in = in;
+        this.handler = handler;
+    }
+
+    @Override
+    public int read() throws IOException {
+        nextChunk();
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("数据块不完整");
+        }
+        remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        nextChunk();
+        int n = in.read(b, off, Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("数据块不完整");
+        }
+        remaining -= n;
+        return n;
+    }
+
+    /**
+     * 当前块读完时读取后续消息，处理其中的控制消息，直到下一个数据块
+     */
+    private void nextChunk() throws IOException {
+        while (remaining == 0) {
+            int messageType = in.readInt();
+            if (messageType == Protocol.MSG_FRAME_CHUNK) {
+                remaining = in.readInt();
+                if (remaining < 0) {
+                    throw new IOException("数据块长度错误: " + remaining);
+                }
+            } else {
+                handler.handle(messageType, in);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 阻塞模式服务端到客户端方向的输出：帧按 Protocol.CHUNK_SIZE 切成 MSG_FRAME_CHUNK 块写出，
+ * 控制消息（指针位置）优先，在块与块之间插入，不必等整帧写完。
+ * 写帧的线程持有锁直到整帧写完；发送控制消息的线程从不等锁，锁被占用时由写帧的线程在下一个块之前代为写出
+ */
+public class ChunkedOutput {
+    private final DataOutputStream out;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<byte[]> control = new ConcurrentLinkedQueue<>();
+
+    public ChunkedOutput(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * 发送控制消息：可以插到正在写出的帧的块之间，不阻塞等待帧写完
+     * @param message 完整的一条消息（类型和字段）
+     */
+    public void sendControl(byte[] message) throws IOException {
+        control.add(message);
+        drainControl();
+    }
+
+    /**
+     * 按顺序发送一条消息（如 MSG_STREAM_INFO），在之前的帧之后、之后的帧之前
+     */
+    public void sendInOrder(byte[] message) throws IOException {
+        lock.lock();
+        try {
+            writeControl();
+            out.write(message);
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+        drainControl();
+    }
+
+    /**
+     * 把一帧切块写出，块之间插入排队中的控制消息。块由 EncodedFrame.toChunks 切出，
+     * 图像数据直接从共享帧的数组写出，不先序列化到中间缓冲区
+     * @return 写出的字节数（含块头和插入的控制消息）
+     */
+    public int sendFrame(EncodedFrame frame) throws IOException {
+        // 自己计数：DataOutputStream.size() 到 Integer.MAX_VALUE 就不再增加，长连接上会算成0
+        int written = 0;
+        lock.lock();
+        try {
+            for (ByteBuffer[] chunk : frame.toChunks(Protocol.CHUNK_SIZE)) {
+                written += writeControl();
+                for (ByteBuffer part : chunk) {
+                    out.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+                    written += part.remaining();
+                }
+            }
+            written += writeControl();
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+        // 只在写出成功后代发控制消息，失败时不掩盖原来的异常
+        drainControl();
+        return written;
+    }
+
+    /**
+     * 锁空闲时立即写出排队的控制消息；解锁后再检查一次，避免消息在持锁线程检查之后入队而滞留
+     */
+    private void drainControl() throws IOException {
+        while (!control.isEmpty() && lock.tryLock()) {
+            try {
+                writeControl();
+                out.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 写出排队的控制消息（不刷新），须持有锁
+     * @return 写出的字节数
+     */
+    private int writeControl() throws IOException {
+        int written = 0;
+        byte[] message;
+        while ((message = control.poll()) != null) {
+            out.write(message);
+            written += message.length;
+        }
+        return written;
+    }
+}
@@ -3,34 +3,92 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * 远程桌面客户端
  */
 public class Client {
+    // 窗口大小停止变化多久后报告给服务端（毫秒）
+    private static final int VIEWPORT_DELAY = 300;
+    
     private Socket socket;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private DataInputStream in;
+    private DataOutputStream out;
     private ScreenDisplay screenDisplay;
     private CommandSender commandSender;
-    private boolean running = false;
+    private FrameDecoder frameDecoder;
+    private ExecutorService executor;
+    private int codecMask;                  // 握手协商出的编解码器
+    private final List<Rectangle> displays = new ArrayList<>(); // 服务端的显示器，主显示器在最前
+    private volatile boolean running = false;
     
     public Client(String host, int port) throws IOException {
+        this(host, port, 0, new Rectangle());
+    }
+    
+    /**
+     * @param display 要观看的显示器序号（0为主显示器）
+     * @param region 只观看该显示器中的一块区域，宽或高为0表示整个显示器
+     */
+    public Client(String host, int port, int display, Rectangle region) throws IOException {
+        Metrics.registerMBean();
         socket = new Socket(host, port);
-        oos = new ObjectOutputStream(socket.getOutputStream());
-        oos.flush();  // 强制发送 Header
-        ois = new ObjectInputStream(socket.getInputStream());
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
         
-        // 接收屏幕尺寸
-        int width = ois.readInt();
-        int height = ois.readInt();
+        // 握手：发送魔数、支持的最高协议版本和支持的编解码器
+        socket.setSoTimeout(Protocol.HANDSHAKE_TIMEOUT);
+        out.writeInt(Protocol.MAGIC);
+        out.writeByte(Protocol.VERSION);
+        out.writeByte(FrameCodecs.SUPPORTED);
+        out.flush();
+        int version = in.readUnsignedByte();
+        if (version < Protocol.MIN_VERSION || version > Protocol.VERSION) {
+            socket.close();
+            throw new IOException("服务器不支持的协议版本: " + version);
+        }
+        codecMask = in.readUnsignedByte();
+        
+        // 接收显示器列表
+        int displayCount = in.readUnsignedByte();
+        for (int i = 0; i < displayCount; i++) {
+            displays.add(new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        socket.setSoTimeout(0);
+        if (displays.isEmpty()) {
+            socket.close();
+            throw new IOException("服务器没有可用的显示器");
+        }
         
         System.out.println("连接到服务器: " + host + ":" + port);
-        System.out.println("屏幕尺寸: " + width + "x" + height);
+        for (int i = 0; i < displays.size(); i++) {
+            Rectangle bounds = displays.get(i);
+            System.out.println("显示器 " + (i + 1) + ": " + bounds.width + "x" + bounds.height);
+        }
+        System.out.println("编解码器掩码: " + Integer.toBinaryString(codecMask));
         
-        // 创建显示窗口
-        screenDisplay = new ScreenDisplay(width, height);
-        commandSender = new CommandSender(oos);
+        // 创建显示窗口，实际尺寸以服务端的 MSG_STREAM_INFO 为准
+        Rectangle initial = displays.get(display >= 0 && display < displays.size() ? display : 0);
+        boolean wholeDisplay = region.width <= 0 || region.height <= 0;
+        screenDisplay = new ScreenDisplay(wholeDisplay ? initial.width : region.width,
+                wholeDisplay ? initial.height : region.height);
+        commandSender = new CommandSender(out);
+        if (display != 0 || !wholeDisplay) {
+            commandSender.sendSelectStream(display, region);
+        }
+        screenDisplay.setupDisplayMenu(displays, this::selectStream);
+        PixelFormat pixelFormat = PixelFormat.fromSystemProperty();
+        if (pixelFormat != PixelFormat.TRUE_COLOR) {
+            commandSender.sendPixelFormat(pixelFormat);
+        }
+        screenDisplay.setupPixelFormatMenu(pixelFormat, this::selectPixelFormat);
+        // 解码后每次重绘时确认已显示的最后一帧
+        frameDecoder = new FrameDecoder(screenDisplay.getScreenPanel(), this::sendFrameAck);
+        frameDecoder.setCacheMissHandler(this::sendCacheReset);
         
         // 设置事件监听
         setupEventListeners();
@@ -58,6 +116,7 @@ public class Client {
                 try {
                     Point screenPoint = screenDisplay.convertToScreenCoordinates(e.getPoint());
                     commandSender.sendMouseMove(screenPoint.x, screenPoint.y);
+                    recordInputDelay(e);
                 } catch (IOException ex) {
                     System.err.println("发送鼠标移动命令失败: " + ex.getMessage());
                 }
@@ -73,6 +132,7 @@ public class Client {
                     Point screenPoint = screenDisplay.convertToScreenCoordinates(e.getPoint());
                     int button = CommandSender.convertButton(e.getButton());
                     commandSender.sendMousePress(screenPoint.x, screenPoint.y, button);
+                    recordInputDelay(e);
                 } catch (IOException ex) {
                     System.err.println("发送鼠标按下命令失败: " + ex.getMessage());
                 }
@@ -84,6 +144,7 @@ public class Client {
                     Point screenPoint = screenDisplay.convertToScreenCoordinates(e.getPoint());
                     int button = CommandSender.convertButton(e.getButton());
                     commandSender.sendMouseRelease(screenPoint.x, screenPoint.y, button);
+                    recordInputDelay(e);
                 } catch (IOException ex) {
                     System.err.println("发送鼠标释放命令失败: " + ex.getMessage());
                 }
@@ -94,6 +155,7 @@ public class Client {
                 try {
                     Point screenPoint = screenDisplay.convertToScreenCoordinates(e.getPoint());
                     commandSender.sendMouseWheel(screenPoint.x, screenPoint.y, e.getWheelRotation());
+                    recordInputDelay(e);
                 } catch (IOException ex) {
                     System.err.println("发送鼠标滚轮命令失败: " + ex.getMessage());
                 }
@@ -107,6 +169,7 @@ public class Client {
             public void keyPressed(KeyEvent e) {
                 try {
                     commandSender.sendKeyPress(e.getKeyCode(), e.getKeyChar());
+                    recordInputDelay(e);
                 } catch (IOException ex) {
                     System.err.println("发送键盘按下命令失败: " + ex.getMessage());
                 }
@@ -116,12 +179,23 @@ public class Client {
             public void keyReleased(KeyEvent e) {
                 try {
                     commandSender.sendKeyRelease(e.getKeyCode(), e.getKeyChar());
+                    recordInputDelay(e);
                 } catch (IOException ex) {
                     System.err.println("发送键盘释放命令失败: " + ex.getMessage());
                 }
             }
         });
         
+        // 窗口大小变化：停止拖动一段时间后再报告，服务端按窗口大小缩小画面
+        Timer viewportTimer = new Timer(VIEWPORT_DELAY, e -> sendViewport());
+        viewportTimer.setRepeats(false);
+        screenPanel.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                viewportTimer.restart();
+            }
+        });
+        
         // 窗口关闭事件
         screenDisplay.addWindowListener(new WindowAdapter() {
             @Override
@@ -139,9 +213,10 @@ public class Client {
         screenDisplay.setVisible(true);
         SwingUtilities.invokeLater(() -> screenDisplay.getScreenPanel().requestFocusInWindow());
         
-        // 启动接收屏幕数据的线程
-        Thread receiveThread = new Thread(this::receiveScreenLoop);
-        receiveThread.start();
+        // 启动接收屏幕数据的任务
+        executor = ExecutionMode.fromSystemProperty("client");
+        executor.execute(frameDecoder);
+        executor.execute(this::receiveScreenLoop);
     }
     
     /**
@@ -149,23 +224,14 @@ public class Client {
      */
     private void receiveScreenLoop() {
         try {
+            // 帧数据分块到达，块之间的控制消息读到时立即处理；
+            // 一帧的各部分收齐（MSG_FRAME_END）后交给解码线程，接收线程不做解码
+            DataInputStream frameIn = new DataInputStream(new ChunkedInput(in, this::handleControl));
             while (running && !socket.isClosed()) {
-                // 读取图像数据长度
-                int dataLength = ois.readInt();
-                
-                // 读取图像数据
-                byte[] imageData = new byte[dataLength];
-                int totalRead = 0;
-                while (totalRead < dataLength) {
-                    int bytesRead = ois.read(imageData, totalRead, dataLength - totalRead);
-                    if (bytesRead == -1) {
-                        throw new IOException("连接已关闭");
-                    }
-                    totalRead += bytesRead;
-                }
-                
-                // 更新显示
-                SwingUtilities.invokeLater(() -> screenDisplay.updateImage(imageData));
+                FrameDecoder.FrameUpdate update = FrameDecoder.FrameUpdate.readFrom(frameIn, codecMask);
+                Metrics.RECEIVE_BYTES.add(update.getDataBytes());
+                frameDecoder.submit(update);
+                Metrics.FRAMES_RECEIVED.increment();
             }
         } catch (Exception e) {
             if (running) {
@@ -178,14 +244,118 @@ public class Client {
         }
     }
     
+    /**
+     * 处理数据块之间的控制消息（在接收线程中调用）
+     */
+    private void handleControl(int messageType, DataInputStream in) throws IOException {
+        switch (messageType) {
+            case Protocol.MSG_STREAM_INFO:
+                // 服务端切换了显示器或区域，之后的帧以新画面为准（第一帧是完整帧）
+                int display = in.readInt();
+                in.readInt();
+                in.readInt();
+                int streamWidth = in.readInt();
+                int streamHeight = in.readInt();
+                int scaledWidth = in.readInt();
+                int scaledHeight = in.readInt();
+                SwingUtilities.invokeLater(() -> screenDisplay.setStream(display, streamWidth, streamHeight,
+                        scaledWidth, scaledHeight));
+                break;
+                
+            case Protocol.MSG_CURSOR:
+                // 指针位置单独发送，只重绘指针
+                int cursorX = in.readInt();
+                int cursorY = in.readInt();
+                screenDisplay.getScreenPanel().setRemoteCursor(cursorX, cursorY);
+                break;
+                
+            case Protocol.MSG_CACHE_RESET:
+                // 服务端已清空镜像，解码完之前的帧后清空区域缓存
+                frameDecoder.submitCacheReset();
+                break;
+                
+            default:
+                throw new IOException("未知的消息类型: " + messageType);
+        }
+    }
+    
+    /**
+     * 记录输入事件从发生到交给命令发送器的时间
+     */
+    private void recordInputDelay(InputEvent e) {
+        Metrics.INPUT_DELAY.record((System.currentTimeMillis() - e.getWhen()) * 1000);
+    }
+    
+    /**
+     * 报告画面区域的设备像素大小（高分辨率屏幕上大于逻辑大小）
+     */
+    private void sendViewport() {
+        ScreenDisplay.ScreenPanel screenPanel = screenDisplay.getScreenPanel();
+        double scale = 1;
+        GraphicsConfiguration configuration = screenPanel.getGraphicsConfiguration();
+        if (configuration != null) {
+            scale = configuration.getDefaultTransform().getScaleX();
+        }
+        try {
+            commandSender.sendViewport((int) Math.ceil(screenPanel.getWidth() * scale),
+                    (int) Math.ceil(screenPanel.getHeight() * scale));
+        } catch (IOException ex) {
+            System.err.println("发送窗口大小失败: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 请求观看另一个显示器或区域（显示器菜单）
+     */
+    private void selectStream(int display, Rectangle region) {
+        try {
+            commandSender.sendSelectStream(display, region);
+        } catch (IOException ex) {
+            System.err.println("发送切换画面命令失败: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 改变画面的颜色深度（颜色深度菜单）
+     */
+    private void selectPixelFormat(PixelFormat format) {
+        try {
+            commandSender.sendPixelFormat(format);
+        } catch (IOException ex) {
+            System.err.println("发送颜色深度命令失败: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 向服务端确认已显示的帧，服务端据此调整帧率和画质
+     */
+    private void sendFrameAck(int sequence) {
+        try {
+            commandSender.sendFrameAck(sequence);
+        } catch (IOException ex) {
+            System.err.println("发送帧确认失败: " + ex.getMessage());
+        }
+    }
+    
+    /**
+     * 区域缓存与服务端不一致，请服务端清空镜像并重发完整画面
+     */
+    private void sendCacheReset() {
+        try {
+            commandSender.sendCacheReset();
+        } catch (IOException ex) {
+            System.err.println("发送清空缓存命令失败: " + ex.getMessage());
+        }
+    }
+    
     /**
      * 关闭连接
      */
     public void close() {
         running = false;
         try {
-            if (ois != null) ois.close();
-            if (oos != null) oos.close();
+            if (in != null) in.close();
+            if (out != null) out.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
             e.printStackTrace();
@@ -193,6 +363,15 @@ public class Client {
         if (screenDisplay != null) {
             screenDisplay.dispose();
         }
+        if (frameDecoder != null) {
+            frameDecoder.stop();
+        }
+        if (commandSender != null) {
+            commandSender.close();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     public static void main(String[] args) {
@@ -200,6 +379,8 @@ public class Client {
             try {
                 String host = "192.168.1.36";  // 默认IP
                 int port = Protocol.DEFAULT_PORT; // 默认端口
+                int display = 0;                  // 默认主显示器
+                Rectangle region = new Rectangle(); // 默认整个显示器
 
                 if (args.length > 0) {
                     // 输入格式：ip:port
@@ -212,10 +393,21 @@ public class Client {
                         host = args[0];
                     }
                 }
+                if (args.length > 1) {
+                    // 显示器编号，从1开始
+                    display = Integer.parseInt(args[1]) - 1;
+                }
+                if (args.length > 2) {
+                    // 区域：x,y,宽,高（相对于该显示器）
+                    region = ScreenDisplay.parseRegion(args[2]);
+                    if (region == null) {
+                        throw new IllegalArgumentException("区域格式应为 x,y,宽,高: " + args[2]);
+                    }
+                }
 
                 System.out.println("连接到服务器: " + host + ":" + port);
 
-                Client client = new Client(host, port);
+                Client client = new Client(host, port, display, region);
                 client.start();
 
             } catch (Exception e) {
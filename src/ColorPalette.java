@@ -0,0 +1,156 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * 收集区域内用到的颜色，颜色数不超过上限时给每个像素分配调色板下标。
+ * 用开放寻址的 int 散列表，不为每个颜色装箱，实例可以反复使用
+ */
+public class ColorPalette {
+    private static final int EMPTY = -1;    // 颜色只取低24位，不会与之冲突
+
+    private final int maxColors;
+    private final int[] keys;
+    private final int[] indexes;
+    private final int[] colors;
+    private int size = 0;
+    private int changes = 0;
+    private int[] row = new int[0];
+
+    /**
+     * @param maxColors 颜色数上限；超过256时只能统计颜色数（collect 的 pixels 为null）
+     */
+    public ColorPalette(int maxColors) {
+        this.maxColors = maxColors;
+        int capacity = Integer.highestOneBit(maxColors * 2 - 1) * 2;  // 装载因子不超过0.5
+        keys = new int[capacity];
+        indexes = new int[capacity];
+        colors = new int[maxColors];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * 清空后收集图像中指定区域的颜色
+     * @param image 原始图像
+     * @param region 需要收集的区域
+     * @param pixels 按行存放每个像素的调色板下标，为null时只统计颜色
+     * @return 颜色数未超过上限时返回true
+     */
+    public boolean collect(BufferedImage image, Rectangle region, byte[] pixels) {
+        return collect(image, region, pixels, null);
+    }
+
+    /**
+     * 同上，读取各行时顺便计算区域的内容哈希（见 TileCache.hash），编码前不必为哈希再扫描一遍。
+     * 计算哈希时颜色数超过上限后不再统计颜色，但仍读完所有行
+     * @param hash 不为null时把哈希放入 hash[0]
+     */
+    public boolean collect(BufferedImage image, Rectangle region, byte[] pixels, long[] hash) {
+        clear();
+        if (row.length < region.width) {
+            row = new int[region.width];
+        }
+        boolean fits = true;
+        changes = 0;
+        long h = hash != null ? TileCache.hashStart(region.width, region.height) : 0;
+        int p = 0;
+        for (int y = 0; y < region.height; y++) {
+            readRow(image, region.x, region.y + y, region.width, row);
+            if (hash != null) {
+                h = TileCache.hashRow(h, row, region.width);
+            }
+            int last = EMPTY;
+            int lastIndex = 0;
+            for (int x = 0; fits && x < region.width; x++) {
+                int rgb = row[x] & 0xFFFFFF;
+                // 相邻像素颜色相同的情况最常见，直接复用上一个下标
+                if (rgb != last) {
+                    changes++;
+                    lastIndex = indexOf(rgb);
+                    if (lastIndex < 0) {
+                        if (hash == null) {
+                            return false;
+                        }
+                        fits = false;
+                        break;
+                    }
+                    last = rgb;
+                }
+                if (pixels != null) {
+                    pixels[p++] = (byte) lastIndex;
+                }
+            }
+        }
+        if (hash != null) {
+            hash[0] = TileCache.hashEnd(h);
+        }
+        return fits;
+    }
+
+    /**
+     * 查找颜色的下标，不存在时加入调色板
+     * @return 调色板已满时返回-1
+     */
+    public int indexOf(int rgb) {
+        int mask = keys.length - 1;
+        int slot = (rgb * 0x9E3779B9 >>> 16) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == rgb) {
+                return indexes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == maxColors) {
+            return -1;
+        }
+        keys[slot] = rgb;
+        indexes[slot] = size;
+        colors[size] = rgb;
+        return size++;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 上次 collect 中颜色与左边像素不同的像素数（每行第一个像素也算），颜色数未超过上限时才是整个区域的统计。
+     * 文字、界面大片同色，照片、视频几乎处处变化
+     */
+    public int changes() {
+        return changes;
+    }
+
+    public int colorAt(int index) {
+        return colors[index];
+    }
+
+    /**
+     * 读取一行像素（RGB）；TYPE_INT_RGB 直接从栅格复制，不逐像素经过颜色模型
+     */
+    static void readRow(BufferedImage image, int x, int y, int width, int[] row) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            image.getRaster().getDataElements(x, y, width, 1, row);
+        } else {
+            image.getRGB(x, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * 写入一行像素（RGB），与 readRow 对应
+     */
+    static void writeRow(BufferedImage image, int x, int y, int width, int[] row) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            image.getRaster().setDataElements(x, y, width, 1, row);
+        } else {
+            image.setRGB(x, y, width, 1, row, 0, width);
+        }
+    }
+}
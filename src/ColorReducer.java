@@ -0,0 +1,316 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * 把画面就地降到会话选择的颜色深度（PixelFormat），在差异检测和编码之前进行。
+ * 降低深度后颜色少了：8位调色板和灰度的每个条带都不超过256种颜色，文字、界面类条带用 DeflateCodec 的调色板模式；
+ * 16位画面在颜色不太多时用 DeflateCodec 的16位模式，每像素两个字节。照片、视频类条带用JPEG（见 FrameCodecs.choose），
+ * 质量不超过格式的上限。
+ * 不做抖动，抖动会破坏压缩和帧间的稳定。
+ * 8位调色板是自适应的：按画面的颜色分布用中位切分生成256色，之后只在画面内容变化、误差明显变大时才重新生成，
+ * 同样的颜色在各帧中映射到同样的调色板颜色，不会因为调色板抖动而整屏变化。
+ * 实例复用统计用的数组，不是线程安全的，每路画面一个
+ */
+public class ColorReducer {
+    // 调色板模式按每个分量的高5位把颜色分到32768个格子中，每个格子映射到一个调色板颜色
+    private static final int BINS = 1 << 15;
+    private static final int PALETTE_SIZE = 256;
+    // 每隔这么多帧检查一次调色板是否还合适（约2秒）
+    private static final int CHECK_FRAMES = 2000 / Protocol.FRAME_INTERVAL;
+    // 统计颜色分布时每隔这么多个像素取一个
+    private static final int SAMPLE_STEP = 7;
+    // 当前调色板的平均误差（各分量之差的平方和）超过该值才尝试重新生成
+    private static final int REBUILD_ERROR = 3 * 6 * 6;
+
+    private final PixelFormat format;
+    private int[] pixels = new int[0];  // 非 INT_RGB 图像时使用
+    // 以下只在调色板模式使用
+    private int[] lut;                  // 格子 → 调色板颜色，还没有调色板时为null
+    private int[] counts;               // 各格子的取样数
+    private int[] redSums;              // 各格子取样颜色的分量和，用于求格子的平均颜色
+    private int[] greenSums;
+    private int[] blueSums;
+    private int framesUntilCheck;
+
+    public ColorReducer(PixelFormat format) {
+        this.format = format;
+        if (format == PixelFormat.PALETTE) {
+            counts = new int[BINS];
+            redSums = new int[BINS];
+            greenSums = new int[BINS];
+            blueSums = new int[BINS];
+        }
+    }
+
+    public PixelFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 就地降低图像的颜色深度
+     * @param image 截屏或缩小后的画面，下次比较和编码直接使用
+     */
+    public void reduce(BufferedImage image) {
+        if (format == PixelFormat.TRUE_COLOR) {
+            return;
+        }
+        int[] data = ScreenCapture.pixelsOf(image);
+        if (data != null) {
+            reduce(data, data.length);
+            return;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (pixels.length < w * h) {
+            pixels = new int[w * h];
+        }
+        image.getRGB(0, 0, w, h, pixels, 0, w);
+        reduce(pixels, w * h);
+        image.setRGB(0, 0, w, h, pixels, 0, w);
+    }
+
+    private void reduce(int[] data, int length) {
+        switch (format) {
+            case RGB565:
+                for (int i = 0; i < length; i++) {
+                    data[i] = expand565(data[i]);
+                }
+                break;
+
+            case GRAY:
+                for (int i = 0; i < length; i++) {
+                    int rgb = data[i];
+                    int y = ((rgb >> 16 & 0xFF) * 77 + (rgb >> 8 & 0xFF) * 150 + (rgb & 0xFF) * 29 + 128) >> 8;
+                    data[i] = y * 0x010101;
+                }
+                break;
+
+            case PALETTE:
+                if (lut == null || --framesUntilCheck <= 0) {
+                    updatePalette(data, length);
+                    framesUntilCheck = CHECK_FRAMES;
+                }
+                for (int i = 0; i < length; i++) {
+                    data[i] = lut[binOf(data[i])];
+                }
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 把颜色截到 RGB565 再扩展回24位（高位复制到低位，纯白仍是纯白），与 DeflateCodec 的16位模式一致
+     */
+    static int expand565(int rgb) {
+        int r = rgb >> 19 & 0x1F;
+        int g = rgb >> 10 & 0x3F;
+        int b = rgb >> 3 & 0x1F;
+        return (r << 3 | r >> 2) << 16 | (g << 2 | g >> 4) << 8 | (b << 3 | b >> 2);
+    }
+
+    private static int binOf(int rgb) {
+        return (rgb >> 9 & 0x7C00) | (rgb >> 6 & 0x3E0) | (rgb >> 3 & 0x1F);
+    }
+
+    /**
+     * 取样统计颜色分布；还没有调色板，或当前调色板误差过大且新调色板明显更好时才替换
+     */
+    private void updatePalette(int[] data, int length) {
+        Arrays.fill(counts, 0);
+        Arrays.fill(redSums, 0);
+        Arrays.fill(greenSums, 0);
+        Arrays.fill(blueSums, 0);
+        long samples = 0;
+        for (int i = 0; i < length; i += SAMPLE_STEP) {
+            int rgb = data[i];
+            int bin = binOf(rgb);
+            counts[bin]++;
+            redSums[bin] += rgb >> 16 & 0xFF;
+            greenSums[bin] += rgb >> 8 & 0xFF;
+            blueSums[bin] += rgb & 0xFF;
+            samples++;
+        }
+        long current = lut == null ? Long.MAX_VALUE : error(lut);
+        if (current <= REBUILD_ERROR * samples) {
+            return;
+        }
+        int[] candidate = buildLut(medianCut());
+        if (lut == null || error(candidate) * 4 < current * 3) {
+            lut = candidate;
+        }
+    }
+
+    /**
+     * 取样像素映射到调色板后的误差总和
+     */
+    private long error(int[] map) {
+        long total = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            int count = counts[bin];
+            if (count > 0) {
+                total += (long) count * distance(meanOf(bin), map[bin]);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 中位切分：反复把“像素数 × 最长边”最大的盒子沿最长的分量在像素数的中位处切开，
+     * 每个盒子取其中像素的平均颜色
+     */
+    private int[] medianCut() {
+        int[] bins = new int[BINS];
+        int n = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0) {
+                bins[n++] = bin;
+            }
+        }
+        int[] starts = new int[PALETTE_SIZE];
+        int[] ends = new int[PALETTE_SIZE];
+        long[] scores = new long[PALETTE_SIZE];
+        int[] axes = new int[PALETTE_SIZE];
+        int[] sorted = new int[n];
+        int boxes = 1;
+        ends[0] = n;
+        measure(bins, 0, n, 0, scores, axes);
+        while (boxes < PALETTE_SIZE) {
+            int best = -1;
+            for (int k = 0; k < boxes; k++) {
+                if (scores[k] > 0 && (best < 0 || scores[k] > scores[best])) {
+                    best = k;
+                }
+            }
+            if (best < 0) {
+                break;      // 每个盒子都只剩一个格子
+            }
+            int start = starts[best];
+            int end = ends[best];
+            int shift = axes[best];
+            // 按该分量（5位）分桶排序，再找像素数的中位
+            int[] offsets = new int[33];
+            for (int i = start; i < end; i++) {
+                offsets[(bins[i] >> shift & 0x1F) + 1]++;
+            }
+            for (int v = 0; v < 32; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            for (int i = start; i < end; i++) {
+                sorted[start + offsets[bins[i] >> shift & 0x1F]++] = bins[i];
+            }
+            System.arraycopy(sorted, start, bins, start, end - start);
+            long total = 0;
+            for (int i = start; i < end; i++) {
+                total += counts[bins[i]];
+            }
+            long half = 0;
+            int split = start;
+            while (split < end && half * 2 < total) {
+                half += counts[bins[split++]];
+            }
+            // 同一分量值的格子不拆开，否则盒子的范围会重叠：移到中位之后（或之前）最近的分界处
+            int value = bins[split - 1] >> shift & 0x1F;
+            int after = split;
+            while (after < end && (bins[after] >> shift & 0x1F) == value) {
+                after++;
+            }
+            if (after < end) {
+                split = after;
+            } else {
+                split--;
+                while ((bins[split - 1] >> shift & 0x1F) == value) {
+                    split--;
+                }
+            }
+            starts[boxes] = split;
+            ends[boxes] = end;
+            ends[best] = split;
+            measure(bins, start, split, best, scores, axes);
+            measure(bins, split, end, boxes, scores, axes);
+            boxes++;
+        }
+
+        int[] palette = new int[boxes];
+        for (int k = 0; k < boxes; k++) {
+            long count = 0;
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int i = starts[k]; i < ends[k]; i++) {
+                int bin = bins[i];
+                count += counts[bin];
+                red += redSums[bin];
+                green += greenSums[bin];
+                blue += blueSums[bin];
+            }
+            palette[k] = (int) ((red + count / 2) / count) << 16 | (int) ((green + count / 2) / count) << 8
+                    | (int) ((blue + count / 2) / count);
+        }
+        return palette;
+    }
+
+    /**
+     * 计算盒子的切分优先级和最长的分量（格子编号中的位移），只有一个格子的盒子优先级为0
+     */
+    private void measure(int[] bins, int start, int end, int box, long[] scores, int[] axes) {
+        long count = 0;
+        int longest = 0;
+        for (int shift = 0; shift <= 10; shift += 5) {
+            int min = 31;
+            int max = 0;
+            for (int i = start; i < end; i++) {
+                int v = bins[i] >> shift & 0x1F;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            if (max - min > longest) {
+                longest = max - min;
+                axes[box] = shift;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            count += counts[bins[i]];
+        }
+        scores[box] = count * longest;
+    }
+
+    /**
+     * 每个格子映射到最近的调色板颜色；有取样的格子按其平均颜色，其余按格子中心
+     */
+    private int[] buildLut(int[] palette) {
+        int[] map = new int[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            int color = counts[bin] > 0 ? meanOf(bin)
+                    : ((bin >> 10) << 3 | 4) << 16 | ((bin >> 5 & 0x1F) << 3 | 4) << 8 | ((bin & 0x1F) << 3 | 4);
+            int nearest = palette[0];
+            int nearestDistance = Integer.MAX_VALUE;
+            for (int candidate : palette) {
+                int d = distance(color, candidate);
+                if (d < nearestDistance) {
+                    nearest = candidate;
+                    nearestDistance = d;
+                    if (d == 0) {
+                        break;
+                    }
+                }
+            }
+            map[bin] = nearest;
+        }
+        return map;
+    }
+
+    private int meanOf(int bin) {
+        int count = counts[bin];
+        return (redSums[bin] + count / 2) / count << 16 | (greenSums[bin] + count / 2) / count << 8
+                | (blueSums[bin] + count / 2) / count;
+    }
+
+    private static int distance(int a, int b) {
+        int dr = (a >> 16 & 0xFF) - (b >> 16 & 0xFF);
+        int dg = (a >> 8 & 0xFF) - (b >> 8 & 0xFF);
+        int db = (a & 0xFF) - (b & 0xFF);
+        return dr * dr + dg * dg + db * db;
+    }
+}
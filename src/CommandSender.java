@@ -1,24 +1,72 @@
+import java.awt.Rectangle;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
- * 命令发送器，负责向服务端发送鼠标和键盘命令
+ * 命令发送器，负责向服务端发送鼠标和键盘命令。
+ * 鼠标移动按时间片合并后批量发送，点击、滚轮和按键立即发送（连同之前合并中的移动一起写出）
  */
 public class CommandSender {
-    private ObjectOutputStream oos;
+    private DataOutputStream out;
+    // 合并后尚未发送的鼠标移动（由 out 的锁保护）
+    private boolean movePending = false;
+    private int pendingX;
+    private int pendingY;
+    private boolean tickScheduled = false;
+    private ScheduledExecutorService scheduler;
     
-    public CommandSender(ObjectOutputStream oos) {
-        this.oos = oos;
+    public CommandSender(DataOutputStream out) {
+        this.out = out;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "input-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
     /**
-     * 发送鼠标移动命令
+     * 发送鼠标移动命令：只记录最新位置，每个 INPUT_TICK 内的移动合并为一条发送
      */
     public void sendMouseMove(int x, int y) throws IOException {
-        synchronized (oos) {
-            oos.writeInt(Protocol.CMD_MOUSE_MOVE);
-            oos.writeObject(new MouseEventData(x, y, 0));
-            oos.flush();
+        synchronized (out) {
+            pendingX = x;
+            pendingY = y;
+            movePending = true;
+            if (!tickScheduled) {
+                tickScheduled = true;
+                scheduler.schedule(this::flushMoves, Protocol.INPUT_TICK, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * 定时发送合并后的鼠标移动
+     */
+    private void flushMoves() {
+        synchronized (out) {
+            tickScheduled = false;
+            try {
+                if (movePending) {
+                    writePendingMove();
+                    out.flush();
+                }
+            } catch (IOException e) {
+                System.err.println("发送鼠标移动命令失败: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * 把合并中的鼠标移动写入缓冲（不刷新）；点击和按键前调用，保证先移动后点击的顺序
+     */
+    private void writePendingMove() throws IOException {
+        if (movePending) {
+            movePending = false;
+            out.writeByte(Protocol.CMD_MOUSE_MOVE);
+            new MouseEventData(pendingX, pendingY, 0).writeTo(out);
         }
     }
     
@@ -26,10 +74,11 @@ public class CommandSender {
      * 发送鼠标按下命令
      */
     public void sendMousePress(int x, int y, int button) throws IOException {
-        synchronized (oos) {
-            oos.writeInt(Protocol.CMD_MOUSE_PRESS);
-            oos.writeObject(new MouseEventData(x, y, button));
-            oos.flush();
+        synchronized (out) {
+            writePendingMove();
+            out.writeByte(Protocol.CMD_MOUSE_PRESS);
+            new MouseEventData(x, y, button).writeTo(out);
+            out.flush();
         }
     }
     
@@ -37,10 +86,11 @@ public class CommandSender {
      * 发送鼠标释放命令
      */
     public void sendMouseRelease(int x, int y, int button) throws IOException {
-        synchronized (oos) {
-            oos.writeInt(Protocol.CMD_MOUSE_RELEASE);
-            oos.writeObject(new MouseEventData(x, y, button));
-            oos.flush();
+        synchronized (out) {
+            writePendingMove();
+            out.writeByte(Protocol.CMD_MOUSE_RELEASE);
+            new MouseEventData(x, y, button).writeTo(out);
+            out.flush();
         }
     }
     
@@ -48,10 +98,11 @@ public class CommandSender {
      * 发送鼠标滚轮命令
      */
     public void sendMouseWheel(int x, int y, int wheelRotation) throws IOException {
-        synchronized (oos) {
-            oos.writeInt(Protocol.CMD_MOUSE_WHEEL);
-            oos.writeObject(new MouseEventData(x, y, 0, wheelRotation));
-            oos.flush();
+        synchronized (out) {
+            writePendingMove();
+            out.writeByte(Protocol.CMD_MOUSE_WHEEL);
+            new MouseEventData(x, y, 0, wheelRotation).writeTo(out);
+            out.flush();
         }
     }
     
@@ -59,10 +110,11 @@ public class CommandSender {
      * 发送键盘按下命令
      */
     public void sendKeyPress(int keyCode, char keyChar) throws IOException {
-        synchronized (oos) {
-            oos.writeInt(Protocol.CMD_KEY_PRESS);
-            oos.writeObject(new KeyEventData(keyCode, keyChar));
-            oos.flush();
+        synchronized (out) {
+            writePendingMove();
+            out.writeByte(Protocol.CMD_KEY_PRESS);
+            new KeyEventData(keyCode, keyChar).writeTo(out);
+            out.flush();
         }
     }
     
@@ -70,13 +122,86 @@ public class CommandSender {
      * 发送键盘释放命令
      */
     public void sendKeyRelease(int keyCode, char keyChar) throws IOException {
-        synchronized (oos) {
-            oos.writeInt(Protocol.CMD_KEY_RELEASE);
-            oos.writeObject(new KeyEventData(keyCode, keyChar));
-            oos.flush();
+        synchronized (out) {
+            writePendingMove();
+            out.writeByte(Protocol.CMD_KEY_RELEASE);
+            new KeyEventData(keyCode, keyChar).writeTo(out);
+            out.flush();
+        }
+    }
+    
+    /**
+     * 发送帧确认命令
+     * @param sequence 已显示的帧序号
+     */
+    public void sendFrameAck(int sequence) throws IOException {
+        synchronized (out) {
+            out.writeByte(Protocol.CMD_FRAME_ACK);
+            Protocol.writeVarInt(out, sequence);
+            out.flush();
+        }
+    }
+    
+    /**
+     * 请求切换观看的画面；之前合并中的移动先按旧画面的坐标发出
+     * @param display 显示器序号
+     * @param region 相对于该显示器的区域，宽或高为0表示整个显示器
+     */
+    public void sendSelectStream(int display, Rectangle region) throws IOException {
+        synchronized (out) {
+            writePendingMove();
+            out.writeByte(Protocol.CMD_SELECT_STREAM);
+            Protocol.writeVarInt(out, display);
+            Protocol.writeVarInt(out, region.x);
+            Protocol.writeVarInt(out, region.y);
+            Protocol.writeVarInt(out, region.width);
+            Protocol.writeVarInt(out, region.height);
+            out.flush();
         }
     }
     
+    /**
+     * 报告窗口中显示画面的区域大小，服务端把画面缩小到该大小以内再编码
+     * @param width 宽度（像素），0表示不缩放
+     * @param height 高度（像素），0表示不缩放
+     */
+    public void sendViewport(int width, int height) throws IOException {
+        synchronized (out) {
+            out.writeByte(Protocol.CMD_VIEWPORT);
+            Protocol.writeVarInt(out, width);
+            Protocol.writeVarInt(out, height);
+            out.flush();
+        }
+    }
+    
+    /**
+     * 选择画面的像素格式（颜色深度），服务端之后发送降到该深度的画面
+     */
+    public void sendPixelFormat(PixelFormat format) throws IOException {
+        synchronized (out) {
+            out.writeByte(Protocol.CMD_PIXEL_FORMAT);
+            Protocol.writeVarInt(out, format.getId());
+            out.flush();
+        }
+    }
+    
+    /**
+     * 请服务端清空区域缓存的镜像（客户端引用了不在缓存中的区域）
+     */
+    public void sendCacheReset() throws IOException {
+        synchronized (out) {
+            out.writeByte(Protocol.CMD_CACHE_RESET);
+            out.flush();
+        }
+    }
+    
+    /**
+     * 停止定时发送
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+    
     /**
      * 将Java KeyEvent的按钮代码转换为协议按钮代码
      */
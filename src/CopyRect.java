@@ -0,0 +1,57 @@
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * 把画面中的一块区域复制到另一个位置（滚动、拖动窗口），代替重新编码这块区域的像素
+ */
+public class CopyRect {
+    private final Rectangle source;
+    private final int destX;
+    private final int destY;
+
+    public CopyRect(Rectangle source, int destX, int destY) {
+        this.source = new Rectangle(source);
+        this.destX = destX;
+        this.destY = destY;
+    }
+
+    public Rectangle getSource() {
+        return source;
+    }
+
+    public int getDestX() {
+        return destX;
+    }
+
+    public int getDestY() {
+        return destY;
+    }
+
+    /**
+     * 对按行存放的像素数组执行复制（服务端更新参考帧），源和目标可以重叠
+     * @param pixels 像素数组
+     * @param width 每行的像素数
+     */
+    public void apply(int[] pixels, int width) {
+        // 向下移动时从最后一行开始复制，避免覆盖尚未复制的源行
+        boolean downward = destY > source.y;
+        for (int j = 0; j < source.height; j++) {
+            int row = downward ? source.height - 1 - j : j;
+            System.arraycopy(pixels, (source.y + row) * width + source.x,
+                    pixels, (destY + row) * width + destX, source.width);
+        }
+    }
+
+    /**
+     * 对图像执行复制（客户端更新后台缓冲），调用方负责同步
+     */
+    public void apply(BufferedImage image) {
+        Graphics g = image.getGraphics();
+        try {
+            g.copyArea(source.x, source.y, source.width, source.height, destX - source.x, destY - source.y);
+        } finally {
+            g.dispose();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.awt.Point;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 鼠标指针位置的轮询线程：独立于截屏编码，按 Protocol.CURSOR_INTERVAL 读取指针在虚拟桌面中的位置，
+ * 位置变化时唤醒等待者。画面很慢时，客户端也能及时看到指针移动
+ */
+public class CursorTracker implements Runnable {
+    private final FrameSource source;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private Point position;             // 虚拟桌面坐标，无法获取时为null
+    private long version = 0;           // 每次位置变化加一
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public CursorTracker(FrameSource source) {
+        this.source = source;
+    }
+
+    /**
+     * 启动轮询线程
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "cursor-tracker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止轮询线程并唤醒所有等待者
+     */
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 注册位置变化通知，用于不阻塞等待的调用方（如NIO事件循环）
+     * @param listener 每次位置变化后调用，须立即返回
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * 当前位置（虚拟桌面坐标），无法获取时返回null
+     */
+    public synchronized Point getPosition() {
+        return position == null ? null : new Point(position);
+    }
+
+    /**
+     * 等待位置变化
+     * @param seenVersion 调用方已经处理过的版本
+     * @param timeoutMillis 最多等待的毫秒数
+     * @return 当前版本，超时或已停止时可能与 seenVersion 相同
+     */
+    public synchronized long awaitChange(long seenVersion, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining;
+        while (running && version == seenVersion && (remaining = deadline - System.currentTimeMillis()) > 0) {
+            wait(remaining);
+        }
+        return version;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                update(source.getPointerLocation());
+            } catch (Exception e) {
+                System.err.println("读取鼠标位置时出错: " + e.getMessage());
+            }
+            // 出错时也按间隔重试，不空转
+            try {
+                Thread.sleep(Protocol.CURSOR_INTERVAL);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void update(Point location) {
+        synchronized (this) {
+            if (location == null ? position == null : location.equals(position)) {
+                return;
+            }
+            position = location;
+            version++;
+            notifyAll();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 无损编解码器：颜色不超过256种时写调色板和每像素一个字节的下标，否则写24位原始像素，
+ * 再用最快级别的 Deflate 压缩。文字、界面类画面颜色少、重复多，压缩后通常比高质量JPEG小，且没有失真。
+ * 画面已降到16位（ColorReducer）时每个像素都能用 RGB565 精确表示，改写每像素两个字节。
+ * 数据格式：模式(byte) [调色板颜色数-1(byte) + 颜色(每个3字节)] + Deflate数据
+ */
+public class DeflateCodec implements FrameCodec {
+    private static final int MODE_PALETTE = 0;
+    private static final int MODE_RGB = 1;
+    private static final int MODE_RGB565 = 2;
+    private static final int MAX_COLORS = 256;
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ColorPalette palette = new ColorPalette(MAX_COLORS);
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    // 复用的像素缓冲区，按需扩大
+    private byte[] pixels = new byte[0];
+    private int[] row = new int[0];
+
+    @Override
+    public int getId() {
+        return Protocol.CODEC_DEFLATE;
+    }
+
+    @Override
+    public void setQuality(float quality) {
+        // 无损，忽略
+    }
+
+    @Override
+    public int encode(BufferedImage image, Rectangle region, OutputStream out) throws IOException {
+        int count = region.width * region.height;
+        ensureCapacity(count * 3, region.width);
+
+        int written;
+        if (palette.collect(image, region, pixels)) {
+            out.write(MODE_PALETTE);
+            out.write(palette.size() - 1);
+            for (int i = 0; i < palette.size(); i++) {
+                int rgb = palette.colorAt(i);
+                out.write(rgb >> 16);
+                out.write(rgb >> 8);
+                out.write(rgb);
+            }
+            written = 2 + palette.size() * 3 + deflate(pixels, count, out);
+        } else if (packRgb565(image, region)) {
+            out.write(MODE_RGB565);
+            written = 1 + deflate(pixels, count * 2, out);
+        } else {
+            int p = 0;
+            for (int y = 0; y < region.height; y++) {
+                ColorPalette.readRow(image, region.x, region.y + y, region.width, row);
+                for (int x = 0; x < region.width; x++) {
+                    int rgb = row[x];
+                    pixels[p++] = (byte) (rgb >> 16);
+                    pixels[p++] = (byte) (rgb >> 8);
+                    pixels[p++] = (byte) rgb;
+                }
+            }
+            out.write(MODE_RGB);
+            written = 1 + deflate(pixels, p, out);
+        }
+        return written;
+    }
+
+    /**
+     * 把区域写成每像素两个字节（RGB565，高字节在前）
+     * @return 有不能精确表示的像素（画面没有降到16位）时返回false
+     */
+    private boolean packRgb565(BufferedImage image, Rectangle region) {
+        int p = 0;
+        for (int y = 0; y < region.height; y++) {
+            ColorPalette.readRow(image, region.x, region.y + y, region.width, row);
+            for (int x = 0; x < region.width; x++) {
+                int rgb = row[x] & 0xFFFFFF;
+                if (ColorReducer.expand565(rgb) != rgb) {
+                    return false;
+                }
+                int packed = (rgb >> 8 & 0xF800) | (rgb >> 5 & 0x07E0) | (rgb >> 3 & 0x1F);
+                pixels[p++] = (byte) (packed >> 8);
+                pixels[p++] = (byte) packed;
+            }
+        }
+        return true;
+    }
+
+    private int deflate(byte[] input, int length, OutputStream out) throws IOException {
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        int written = 0;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+            written += n;
+        }
+        return written;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, BufferedImage target, Rectangle bounds) throws IOException {
+        int count = bounds.width * bounds.height;
+        ensureCapacity(count * 3, bounds.width);
+        int end = offset + length;
+        int p = offset;
+        if (length < 1) {
+            throw new IOException("无损编码数据不完整");
+        }
+        int mode = data[p++];
+        int[] colors = null;
+        if (mode == MODE_PALETTE) {
+            if (p >= end) {
+                throw new IOException("无损编码数据不完整");
+            }
+            colors = new int[(data[p++] & 0xFF) + 1];
+            if (end - p < colors.length * 3) {
+                throw new IOException("无损编码的调色板不完整");
+            }
+            for (int i = 0; i < colors.length; i++) {
+                colors[i] = (data[p] & 0xFF) << 16 | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF);
+                p += 3;
+            }
+        } else if (mode != MODE_RGB && mode != MODE_RGB565) {
+            throw new IOException("未知的无损编码模式: " + mode);
+        }
+        inflate(data, p, end - p, colors != null ? count : mode == MODE_RGB565 ? count * 2 : count * 3);
+
+        p = 0;
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                if (colors != null) {
+                    int index = pixels[p++] & 0xFF;
+                    if (index >= colors.length) {
+                        throw new IOException("调色板下标越界: " + index + "/" + colors.length);
+                    }
+                    row[x] = colors[index];
+                } else if (mode == MODE_RGB565) {
+                    int packed = (pixels[p] & 0xFF) << 8 | (pixels[p + 1] & 0xFF);
+                    row[x] = ColorReducer.expand565(packed << 8 & 0xF80000 | packed << 5 & 0xFC00 | packed << 3 & 0xF8);
+                    p += 2;
+                } else {
+                    row[x] = (pixels[p] & 0xFF) << 16 | (pixels[p + 1] & 0xFF) << 8 | (pixels[p + 2] & 0xFF);
+                    p += 3;
+                }
+            }
+            ColorPalette.writeRow(target, bounds.x, bounds.y + y, bounds.width, row);
+        }
+    }
+
+    private void inflate(byte[] data, int offset, int length, int expected) throws IOException {
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        try {
+            int n = 0;
+            while (n < expected && !inflater.finished()) {
+                int k = inflater.inflate(pixels, n, expected - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n < expected) {
+                throw new IOException("无损编码数据不完整: " + n + "/" + expected);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("无损编码数据损坏: " + e.getMessage());
+        }
+    }
+
+    private void ensureCapacity(int bytes, int width) {
+        if (pixels.length < bytes) {
+            pixels = new byte[bytes];
+        }
+        if (row.length < width) {
+            row = new int[width];
+        }
+    }
+}
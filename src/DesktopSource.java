@@ -0,0 +1,65 @@
+import java.awt.AWTException;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.MouseInfo;
+import java.awt.Point;
+import java.awt.PointerInfo;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本机桌面：用 Robot 截屏，用 MouseInfo 读取指针位置。
+ * Robot 的截屏方法是同步的，每个截屏线程使用自己的 Robot，各路画面可以同时截屏
+ */
+public class DesktopSource implements FrameSource {
+    private final ThreadLocal<Robot> robots = new ThreadLocal<>();
+
+    /**
+     * @throws AWTException 没有桌面（如无图形界面的服务器）
+     */
+    public DesktopSource() throws AWTException {
+        robots.set(new Robot());
+    }
+
+    @Override
+    public List<Rectangle> displayBounds() {
+        GraphicsEnvironment environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        GraphicsDevice primary = environment.getDefaultScreenDevice();
+        List<Rectangle> displays = new ArrayList<>();
+        displays.add(primary.getDefaultConfiguration().getBounds());
+        for (GraphicsDevice device : environment.getScreenDevices()) {
+            if (device != primary) {
+                displays.add(device.getDefaultConfiguration().getBounds());
+            }
+        }
+        return displays;
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        Robot robot = robots.get();
+        if (robot == null) {
+            try {
+                robot = new Robot();
+            } catch (AWTException e) {
+                throw new IllegalStateException("无法创建截屏用的Robot", e);
+            }
+            robots.set(robot);
+        }
+        return robot.createScreenCapture(area);
+    }
+
+    @Override
+    public Point getPointerLocation() {
+        PointerInfo info = MouseInfo.getPointerInfo();
+        return info == null ? null : info.getLocation();
+    }
+
+    @Override
+    public Robot createRobot() throws AWTException {
+        return new Robot();
+    }
+}
@@ -0,0 +1,368 @@
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 已编码的一帧：关键帧或增量帧，编码后在所有客户端之间共享，不可修改。
+ * 关键帧声明画面尺寸，其后的区域（可并行编解码的若干条带）覆盖整个画面；
+ * 增量帧是若干复制操作和变化区域。各区域按偏移和长度引用其编码数据
+ */
+public class EncodedFrame {
+    private final long sequence;
+    private final Dimension keyFrameSize;   // 关键帧的画面尺寸，增量帧为null
+    private final List<Patch> patches;      // 在关键帧之后依次执行的更新
+
+    public EncodedFrame(long sequence, Dimension keyFrameSize, List<Tile> tiles) {
+        this(sequence, keyFrameSize, Collections.<CopyRect>emptyList(), tiles);
+    }
+
+    public EncodedFrame(long sequence, Dimension keyFrameSize, List<CopyRect> copies, List<Tile> tiles) {
+        this(sequence, keyFrameSize,
+                copies.isEmpty() && tiles.isEmpty() ? new Patch[0] : new Patch[] {new Patch(copies, tiles)});
+    }
+
+    private EncodedFrame(long sequence, Dimension keyFrameSize, Patch[] patches) {
+        this.sequence = sequence;
+        this.keyFrameSize = keyFrameSize == null ? null : new Dimension(keyFrameSize);
+        this.patches = Collections.unmodifiableList(Arrays.asList(patches));
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isKeyFrame() {
+        return keyFrameSize != null;
+    }
+
+    /**
+     * 关键帧的画面尺寸，增量帧返回null
+     */
+    public Dimension getKeyFrameSize() {
+        return keyFrameSize;
+    }
+
+    public List<Patch> getPatches() {
+        return patches;
+    }
+
+    /**
+     * 合并连续的若干帧，结果与依次应用这些帧得到的画面相同。
+     * 落后的客户端借此直接跳到最新画面，被后续区域完全覆盖的旧区域不再发送。
+     * 复制操作会读取之前的画面，所以只在两次复制之间合并区域
+     * @param frames 按序号排列的连续帧
+     * @return 合并后的帧
+     */
+    public static EncodedFrame merge(List<EncodedFrame> frames) {
+        if (frames.size() == 1) {
+            return frames.get(0);
+        }
+
+        // 只需从最后一个关键帧开始
+        int start = 0;
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            if (frames.get(i).isKeyFrame()) {
+                start = i;
+                break;
+            }
+        }
+
+        // 按复制操作分段，每段内的区域合并在一起
+        List<Patch> merged = new ArrayList<>();
+        List<CopyRect> copies = null;
+        List<List<Tile>> segment = new ArrayList<>();
+        for (int i = start; i < frames.size(); i++) {
+            for (Patch patch : frames.get(i).getPatches()) {
+                if (copies == null || !patch.getCopies().isEmpty()) {
+                    if (copies != null) {
+                        merged.add(new Patch(copies, mergeTiles(segment)));
+                    }
+                    copies = patch.getCopies();
+                    segment.clear();
+                }
+                segment.add(patch.getTiles());
+            }
+        }
+        if (copies != null) {
+            merged.add(new Patch(copies, mergeTiles(segment)));
+        }
+
+        EncodedFrame last = frames.get(frames.size() - 1);
+        return new EncodedFrame(last.getSequence(), frames.get(start).getKeyFrameSize(), merged.toArray(new Patch[0]));
+    }
+
+    /**
+     * 从新到旧收集区域，跳过被更新区域覆盖的部分
+     */
+    private static List<Tile> mergeTiles(List<List<Tile>> tileLists) {
+        List<Tile> kept = new ArrayList<>();
+        for (int i = tileLists.size() - 1; i >= 0; i--) {
+            List<Tile> frameTiles = tileLists.get(i);
+            for (int j = frameTiles.size() - 1; j >= 0; j--) {
+                Tile tile = frameTiles.get(j);
+                if (!coveredBy(tile, kept)) {
+                    kept.add(tile);
+                }
+            }
+        }
+        Collections.reverse(kept);
+        return kept;
+    }
+
+    private static boolean coveredBy(Tile tile, List<Tile> newer) {
+        for (Tile t : newer) {
+            if (t.getBounds().contains(tile.getBounds())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按某个客户端的缓存改写本帧：该客户端已缓存的区域改为引用，其余区域计入缓存。
+     * 镜像按发送顺序更新，客户端按同样的顺序解码、执行同样的操作，两边的缓存保持一致
+     * @param cache 服务端为该客户端维护的缓存镜像，本帧发出之前的状态
+     * @return 没有区域可以改为引用时返回本帧
+     */
+    public EncodedFrame withCachedTiles(TileCache<Void> cache) {
+        Patch[] result = new Patch[patches.size()];
+        boolean replaced = false;
+        for (int i = 0; i < result.length; i++) {
+            Patch patch = patches.get(i);
+            List<Tile> tiles = new ArrayList<>(patch.getTiles().size());
+            for (Tile tile : patch.getTiles()) {
+                if (tile.getHash() != 0 && cache.touch(tile.getHash())) {
+                    tiles.add(Tile.cached(tile.getBounds(), tile.getHash()));
+                    Metrics.CACHE_HITS.increment();
+                    Metrics.CACHE_SAVED_BYTES.add(tile.getLength());
+                    replaced = true;
+                } else {
+                    if (tile.getHash() != 0) {
+                        cache.put(tile.getHash(), null, TileCache.pixelBytes(tile.getBounds()));
+                    }
+                    tiles.add(tile);
+                }
+            }
+            result[i] = new Patch(patch.getCopies(), tiles);
+        }
+        return replaced ? new EncodedFrame(sequence, keyFrameSize, result) : this;
+    }
+
+    /**
+     * 按协议格式写出本帧，以 MSG_FRAME_END 结尾（不刷新输出流）
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        if (keyFrameSize != null) {
+            out.writeInt(Protocol.MSG_FRAME_FULL);
+            out.writeInt(keyFrameSize.width);
+            out.writeInt(keyFrameSize.height);
+        }
+        for (Patch patch : patches) {
+            if (!patch.getCopies().isEmpty()) {
+                out.writeInt(Protocol.MSG_FRAME_COPY);
+                out.writeInt(patch.getCopies().size());
+                for (CopyRect copy : patch.getCopies()) {
+                    Rectangle source = copy.getSource();
+                    out.writeInt(source.x);
+                    out.writeInt(source.y);
+                    out.writeInt(source.width);
+                    out.writeInt(source.height);
+                    out.writeInt(copy.getDestX());
+                    out.writeInt(copy.getDestY());
+                }
+            }
+            if (!patch.getTiles().isEmpty()) {
+                out.writeInt(Protocol.MSG_FRAME_TILES);
+                out.writeInt(patch.getTiles().size());
+                for (Tile tile : patch.getTiles()) {
+                    Rectangle bounds = tile.getBounds();
+                    out.writeInt(bounds.x);
+                    out.writeInt(bounds.y);
+                    out.writeInt(bounds.width);
+                    out.writeInt(bounds.height);
+                    out.writeByte(tile.getCodec());
+                    out.writeLong(tile.getHash());
+                    out.writeInt(tile.getLength());
+                    out.write(tile.getData(), tile.getOffset(), tile.getLength());
+                }
+            }
+        }
+        out.writeInt(Protocol.MSG_FRAME_END);
+        out.writeInt((int) sequence);
+    }
+
+    /**
+     * 按协议格式生成待发送的缓冲区序列，图像数据直接引用共享数组而不复制
+     */
+    public List<ByteBuffer> toBuffers() {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        if (keyFrameSize != null) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            header.putInt(Protocol.MSG_FRAME_FULL).putInt(keyFrameSize.width).putInt(keyFrameSize.height).flip();
+            buffers.add(header);
+        }
+        for (Patch patch : patches) {
+            if (!patch.getCopies().isEmpty()) {
+                ByteBuffer copies = ByteBuffer.allocate(8 + patch.getCopies().size() * 24);
+                copies.putInt(Protocol.MSG_FRAME_COPY).putInt(patch.getCopies().size());
+                for (CopyRect copy : patch.getCopies()) {
+                    Rectangle source = copy.getSource();
+                    copies.putInt(source.x).putInt(source.y).putInt(source.width).putInt(source.height)
+                            .putInt(copy.getDestX()).putInt(copy.getDestY());
+                }
+                copies.flip();
+                buffers.add(copies);
+            }
+            if (!patch.getTiles().isEmpty()) {
+                ByteBuffer header = ByteBuffer.allocate(8);
+                header.putInt(Protocol.MSG_FRAME_TILES).putInt(patch.getTiles().size()).flip();
+                buffers.add(header);
+                for (Tile tile : patch.getTiles()) {
+                    Rectangle bounds = tile.getBounds();
+                    ByteBuffer tileHeader = ByteBuffer.allocate(29);
+                    tileHeader.putInt(bounds.x).putInt(bounds.y).putInt(bounds.width).putInt(bounds.height)
+                            .put((byte) tile.getCodec()).putLong(tile.getHash()).putInt(tile.getLength()).flip();
+                    buffers.add(tileHeader);
+                    buffers.add(tile.asByteBuffer());
+                }
+            }
+        }
+        ByteBuffer end = ByteBuffer.allocate(8);
+        end.putInt(Protocol.MSG_FRAME_END).putInt((int) sequence).flip();
+        buffers.add(end);
+        return buffers;
+    }
+
+    /**
+     * 把 toBuffers() 的字节流切成 MSG_FRAME_CHUNK 块，块之间可以插入控制消息；图像数据仍然直接引用共享数组
+     * @param chunkSize 每块最多的数据字节数
+     * @return 各块的缓冲区序列（块头在前）
+     */
+    public List<ByteBuffer[]> toChunks(int chunkSize) {
+        List<ByteBuffer[]> chunks = new ArrayList<>();
+        List<ByteBuffer> parts = new ArrayList<>();
+        int size = 0;
+        for (ByteBuffer buffer : toBuffers()) {
+            while (buffer.hasRemaining()) {
+                int n = Math.min(buffer.remaining(), chunkSize - size);
+                ByteBuffer part = buffer.duplicate();
+                part.limit(part.position() + n);
+                parts.add(part.slice());
+                buffer.position(buffer.position() + n);
+                size += n;
+                if (size == chunkSize) {
+                    chunks.add(chunk(parts, size));
+                    parts.clear();
+                    size = 0;
+                }
+            }
+        }
+        if (size > 0) {
+            chunks.add(chunk(parts, size));
+        }
+        return chunks;
+    }
+
+    private static ByteBuffer[] chunk(List<ByteBuffer> parts, int size) {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.putInt(Protocol.MSG_FRAME_CHUNK).putInt(size).flip();
+        ByteBuffer[] buffers = new ByteBuffer[parts.size() + 1];
+        buffers[0] = header;
+        for (int i = 0; i < parts.size(); i++) {
+            buffers[i + 1] = parts.get(i);
+        }
+        return buffers;
+    }
+
+    /**
+     * 一次更新：先按顺序执行复制操作，再贴上变化区域
+     */
+    public static class Patch {
+        private final List<CopyRect> copies;
+        private final List<Tile> tiles;
+
+        public Patch(List<CopyRect> copies, List<Tile> tiles) {
+            this.copies = Collections.unmodifiableList(copies);
+            this.tiles = Collections.unmodifiableList(tiles);
+        }
+
+        public List<CopyRect> getCopies() {
+            return copies;
+        }
+
+        public List<Tile> getTiles() {
+            return tiles;
+        }
+    }
+
+    /**
+     * 一个已编码的变化区域
+     */
+    public static class Tile {
+        private static final byte[] NO_DATA = new byte[0];
+
+        private final Rectangle bounds;
+        private final int codec;            // 编码方式，见 Protocol.CODEC_*
+        private final byte[] data;          // 可能与同一帧的其他区域共用
+        private final int offset;
+        private final int length;
+        private final long hash;            // 原始像素的内容哈希，0表示不缓存，见 TileCache
+
+        public Tile(Rectangle bounds, int codec, byte[] data, int offset, int length) {
+            this(bounds, codec, data, offset, length, 0);
+        }
+
+        public Tile(Rectangle bounds, int codec, byte[] data, int offset, int length, long hash) {
+            this.bounds = new Rectangle(bounds);
+            this.codec = codec;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        /**
+         * 引用客户端缓存中的区域（Protocol.CODEC_CACHED），不带编码数据
+         */
+        public static Tile cached(Rectangle bounds, long hash) {
+            return new Tile(bounds, Protocol.CODEC_CACHED, NO_DATA, 0, 0, hash);
+        }
+
+        public Rectangle getBounds() {
+            return bounds;
+        }
+
+        public int getCodec() {
+            return codec;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        /**
+         * 直接包装共享的编码数据，供写出（NIO 写入通道，阻塞模式按底层数组写入流），调用方只能读取
+         */
+        public ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(data, offset, length);
+        }
+    }
+}
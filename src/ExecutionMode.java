@@ -0,0 +1,75 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接处理、屏幕发送和接收循环所用的执行方式，启动时通过系统属性选择：
+ * -Dremote.executor=thread（默认，每个任务一个平台线程）
+ * -Dremote.executor=pool:N（最多N个平台线程，服务端和压测客户端不接受超出线程数的连接）
+ * -Dremote.executor=virtual（Java 21 虚拟线程，低版本JDK退回thread）
+ */
+public enum ExecutionMode {
+    THREAD,
+    POOL,
+    VIRTUAL;
+
+    public static final String PROPERTY = "remote.executor";
+    private static final int DEFAULT_POOL_SIZE = 64;
+
+    /**
+     * 按系统属性创建执行器
+     * @param name 线程名前缀
+     */
+    public static ExecutorService fromSystemProperty(String name) {
+        String value = System.getProperty(PROPERTY, "thread").trim().toLowerCase();
+        int poolSize = DEFAULT_POOL_SIZE;
+        int colon = value.indexOf(':');
+        if (colon >= 0) {
+            poolSize = Integer.parseInt(value.substring(colon + 1));
+            value = value.substring(0, colon);
+        }
+        return valueOf(value.toUpperCase()).createExecutor(name, poolSize);
+    }
+
+    /**
+     * 创建执行器
+     * @param name 线程名前缀
+     * @param poolSize 线程池大小，仅POOL模式使用
+     */
+    public ExecutorService createExecutor(String name, int poolSize) {
+        switch (this) {
+            case POOL:
+                return Executors.newFixedThreadPool(poolSize, namedThreads(name));
+            case VIRTUAL:
+                try {
+                    Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                    return (ExecutorService) factory.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    System.err.println("当前JDK不支持虚拟线程，改用平台线程");
+                    return Executors.newCachedThreadPool(namedThreads(name));
+                }
+            default:
+                return Executors.newCachedThreadPool(namedThreads(name));
+        }
+    }
+
+    /**
+     * 执行器最多能同时运行的任务数。各连接的循环都是长期运行的任务，超出的任务会一直排队，
+     * 调用方据此拒绝超出容量的连接
+     * @return POOL模式为线程池大小，其余模式不限（Integer.MAX_VALUE）
+     */
+    public static int maxConcurrentTasks(ExecutorService executor) {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, name + "-" + counter.incrementAndGet());
+    }
+}
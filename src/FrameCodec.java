@@ -0,0 +1,41 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 画面编解码器：把图像的一个区域编码为字节，或把字节解码回目标图像的对应位置。
+ * 实例不是线程安全的，每个线程通过 FrameCodecs.forCurrentThread 取自己的实例
+ */
+public interface FrameCodec {
+    /**
+     * 协议中的编号，见 Protocol.CODEC_*
+     */
+    int getId();
+
+    /**
+     * 设置有损压缩的质量（0.0-1.0），无损编解码器忽略
+     */
+    void setQuality(float quality);
+
+    /**
+     * 编码图像中的指定区域并追加写入输出流
+     * @param image 原始图像
+     * @param region 需要编码的区域
+     * @param out 输出流，通常是复用的帧缓冲区
+     * @return 写入的字节数
+     * @throws IOException IO异常
+     */
+    int encode(BufferedImage image, Rectangle region, OutputStream out) throws IOException;
+
+    /**
+     * 把编码数据直接解码到目标图像的指定区域
+     * @param data 编码数据所在的数组
+     * @param offset 数据起始位置
+     * @param length 数据长度
+     * @param target 目标图像，调用方负责同步
+     * @param bounds 区域在目标图像中的位置和大小
+     * @throws IOException 数据无法解码时抛出
+     */
+    void decode(byte[] data, int offset, int length, BufferedImage target, Rectangle bounds) throws IOException;
+}
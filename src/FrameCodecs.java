@@ -0,0 +1,95 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * 编解码器的注册、协商和选择。
+ * 握手时双方交换支持的编解码器掩码（1 << 编号），编码端再按区域内容在协商结果中挑选：
+ * 颜色少（文字、界面）用无损编码，颜色多（照片、视频）用JPEG
+ */
+public final class FrameCodecs {
+    // 颜色数不超过该值的区域视为文字、界面类内容
+    public static final int LOSSLESS_MAX_COLORS = 256;
+    // 16位画面中颜色数不超过该值的区域（带渐变、抗锯齿的界面）也用无损编码，每像素两个字节
+    public static final int RGB565_LOSSLESS_MAX_COLORS = 4096;
+    // 8位画面的区域颜色总不超过256种，与左边像素颜色不同的像素超过该比例时（照片、视频）改用JPEG，
+    // 这类区域的下标几乎无法压缩，无损编码比JPEG大一倍以上
+    public static final float PALETTE_LOSSLESS_MAX_CHANGES = 0.2f;
+
+    /** 本端支持的编解码器掩码 */
+    public static final int SUPPORTED = 1 << Protocol.CODEC_JPEG | 1 << Protocol.CODEC_PNG | 1 << Protocol.CODEC_DEFLATE;
+
+    private static final ThreadLocal<FrameCodec[]> PER_THREAD = ThreadLocal.withInitial(() -> new FrameCodec[] {
+            new ImageCompressor(Protocol.CODEC_JPEG, "jpg"),
+            new ImageCompressor(Protocol.CODEC_PNG, "png"),
+            new DeflateCodec()
+    });
+    private static final ThreadLocal<ColorPalette> SELECTOR_PALETTE =
+            ThreadLocal.withInitial(() -> new ColorPalette(LOSSLESS_MAX_COLORS));
+    private static final ThreadLocal<ColorPalette> RGB565_SELECTOR_PALETTE =
+            ThreadLocal.withInitial(() -> new ColorPalette(RGB565_LOSSLESS_MAX_COLORS));
+
+    private FrameCodecs() {
+    }
+
+    /**
+     * 当前线程专用的编解码器实例；ImageIO 的读写器和 Deflater 都不是线程安全的
+     * @param id 编号，见 Protocol.CODEC_*
+     * @throws IllegalArgumentException 编号未知
+     */
+    public static FrameCodec forCurrentThread(int id) {
+        FrameCodec[] codecs = PER_THREAD.get();
+        if (id < 0 || id >= codecs.length) {
+            throw new IllegalArgumentException("未知的编解码器: " + id);
+        }
+        return codecs[id];
+    }
+
+    /**
+     * 服务端计算双方都支持的编解码器，JPEG总是包含在内
+     * @param clientMask 客户端发来的掩码
+     */
+    public static int negotiate(int clientMask) {
+        return (clientMask & SUPPORTED) | 1 << Protocol.CODEC_JPEG;
+    }
+
+    public static boolean supports(int mask, int id) {
+        return id >= 0 && id < Integer.SIZE && (mask & 1 << id) != 0;
+    }
+
+    /**
+     * 按区域内容和画面的像素格式选择编解码器，只扫描一遍，不先编码再比较大小：颜色少（文字、界面）用无损编码，
+     * 优先Deflate，其余用JPEG。16位格式放宽无损编码的颜色数上限；
+     * 8位格式的区域颜色总不超过256种，按颜色变化的频繁程度区分文字、界面（无损）和照片、视频（JPEG）。
+     * 不计算哈希时颜色数一超过上限就停止统计，照片类区域只需扫描很少的像素
+     * @param image 原始图像（已降到 format）
+     * @param region 需要编码的区域
+     * @param mask 可用的编解码器掩码
+     * @param format 画面已降到的像素格式
+     * @param hash 不为null时在同一遍扫描中计算区域的内容哈希（见 TileCache.hash），放入 hash[0]
+     * @return 编号
+     */
+    public static int choose(BufferedImage image, Rectangle region, int mask, PixelFormat format, long[] hash) {
+        ColorPalette selector;
+        int lossless;
+        if (format == PixelFormat.RGB565 && supports(mask, Protocol.CODEC_DEFLATE)) {
+            selector = RGB565_SELECTOR_PALETTE.get();
+            lossless = Protocol.CODEC_DEFLATE;
+        } else if (supports(mask, Protocol.CODEC_DEFLATE) || supports(mask, Protocol.CODEC_PNG)) {
+            selector = SELECTOR_PALETTE.get();
+            lossless = supports(mask, Protocol.CODEC_DEFLATE) ? Protocol.CODEC_DEFLATE : Protocol.CODEC_PNG;
+        } else {
+            if (hash != null) {
+                hash[0] = TileCache.hash(image, region);
+            }
+            return Protocol.CODEC_JPEG;
+        }
+        if (!selector.collect(image, region, null, hash)) {
+            return Protocol.CODEC_JPEG;
+        }
+        if ((format == PixelFormat.PALETTE || format == PixelFormat.GRAY)
+                && selector.changes() > (long) region.width * region.height * PALETTE_LOSSLESS_MAX_CHANGES) {
+            return Protocol.CODEC_JPEG;
+        }
+        return lossless;
+    }
+}
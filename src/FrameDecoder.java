@@ -0,0 +1,447 @@
+import javax.swing.SwingUtilities;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * 客户端解码器：在独立线程中把收到的帧直接解码进复用的后台缓冲，互不重叠的区域由 TileWorkers 并行解码，
+ * 界面线程只负责重绘。解码跟不上时，新的关键帧之前尚未解码的旧帧不再绘制，重绘请求也会合并。
+ * 带哈希的区域连同编码数据放入区域缓存，之后服务端只发引用（CODEC_CACHED）；缓存操作必须与服务端的镜像一一对应，
+ * 所以不绘制的帧也照常更新缓存，但只记下编码数据，引用第一次真正画出时才解码，跳过的帧几乎不花解码时间
+ */
+public class FrameDecoder implements Runnable {
+    // 待重绘的区域超过这么多个时合并为一个外接矩形
+    private static final int MAX_DIRTY_REGIONS = 32;
+
+    private final ScreenDisplay.ScreenPanel screenPanel;
+    private final IntConsumer frameShown;           // 参数为已显示的最后一帧序号
+    private final List<FrameUpdate> pending = new ArrayList<>();
+    private final AtomicBoolean repaintScheduled = new AtomicBoolean(false);
+    private final List<Rectangle> dirtyRegions = new ArrayList<>();    // 已画进后台缓冲、尚未重绘的区域，由其自身的锁保护
+    private BufferedImage backBuffer;
+    // 以下只由解码线程使用
+    private final TileCache<CachedTile> tileCache = new TileCache<>(Protocol.TILE_CACHE_BYTES);
+    private Runnable cacheMissHandler;
+    private boolean cacheResetPending = false;      // 已请求清空缓存，等待 MSG_CACHE_RESET
+    private volatile int shownSequence;
+    private volatile boolean running = true;
+
+    public FrameDecoder(ScreenDisplay.ScreenPanel screenPanel, IntConsumer frameShown) {
+        this.screenPanel = screenPanel;
+        this.frameShown = frameShown;
+    }
+
+    /**
+     * 引用了不在缓存中的区域时调用（在解码线程中，收到 MSG_CACHE_RESET 之前只调用一次），应请服务端清空镜像
+     */
+    public void setCacheMissHandler(Runnable handler) {
+        this.cacheMissHandler = handler;
+    }
+
+    /**
+     * 提交一帧（由接收线程调用，不阻塞）
+     */
+    public synchronized void submit(FrameUpdate update) {
+        if (update.keyFrameSize != null) {
+            // 关键帧覆盖整个画面，之前还没解码的帧都不用画了（只更新区域缓存）
+            for (FrameUpdate earlier : pending) {
+                if (!earlier.skipped && !earlier.cacheReset) {
+                    earlier.skipped = true;
+                    Metrics.FRAMES_SKIPPED.increment();
+                }
+            }
+        }
+        pending.add(update);
+        notifyAll();
+    }
+
+    /**
+     * 收到 MSG_CACHE_RESET：在已提交的帧之后清空区域缓存（由接收线程调用）
+     */
+    public void submitCacheReset() {
+        FrameUpdate reset = new FrameUpdate();
+        reset.cacheReset = true;
+        reset.skipped = true;
+        submit(reset);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                List<FrameUpdate> batch;
+                synchronized (this) {
+                    while (running && pending.isEmpty()) {
+                        wait();
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                }
+                boolean shown = false;
+                for (FrameUpdate update : batch) {
+                    if (update.cacheReset) {
+                        tileCache.clear();
+                        cacheResetPending = false;
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    apply(update);
+                    Metrics.DECODE.recordSince(start);
+                    if (!update.skipped) {
+                        shownSequence = update.sequence;
+                        shown = true;
+                    }
+                }
+                if (shown) {
+                    scheduleRepaint();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void apply(FrameUpdate update) {
+        try {
+            Dimension size = update.keyFrameSize;
+            if (size != null
+                    && (backBuffer == null || backBuffer.getWidth() != size.width || backBuffer.getHeight() != size.height)) {
+                backBuffer = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+                BufferedImage image = backBuffer;
+                SwingUtilities.invokeLater(() -> screenPanel.setImage(image));
+            }
+            // 还没收到关键帧时只更新区域缓存
+            BufferedImage target = update.skipped ? null : backBuffer;
+            for (EncodedFrame.Patch patch : update.patches()) {
+                if (target != null) {
+                    synchronized (target) {
+                        for (CopyRect copy : patch.getCopies()) {
+                            copy.apply(target);
+                            Rectangle source = copy.getSource();
+                            markDirty(new Rectangle(copy.getDestX(), copy.getDestY(), source.width, source.height));
+                        }
+                    }
+                }
+                // 后面的区域可能覆盖前面的（合并多帧时），重叠时分批解码以保持先后顺序；
+                // 缓存的放入和查找按区域的先后立即执行，与服务端镜像的顺序一致
+                List<Placement> batch = new ArrayList<>();
+                for (EncodedFrame.Tile tile : patch.getTiles()) {
+                    Placement placement = place(tile, target);
+                    if (placement == null) {
+                        continue;
+                    }
+                    if (overlapsAny(tile, batch)) {
+                        decodeInto(batch, target);
+                        batch.clear();
+                    }
+                    batch.add(placement);
+                }
+                decodeInto(batch, target);
+            }
+            if (target != null && size != null) {
+                synchronized (target) {
+                    markDirty(new Rectangle(0, 0, size.width, size.height));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("解码图像时出错: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // 数据异常时编解码器可能抛出运行时异常，只丢弃这一帧，解码线程继续运行
+            System.err.println("解码图像时出错: " + e);
+        }
+    }
+
+    /**
+     * 处理一个区域的缓存操作：带哈希的区域连同编码数据放入缓存；引用从缓存中取出图像，还没解码过的这时才解码
+     * @param target 要画到的后台缓冲，不绘制时为null
+     * @return 没有需要解码或绘制的内容时返回null
+     */
+    private Placement place(EncodedFrame.Tile tile, BufferedImage target) {
+        Rectangle bounds = tile.getBounds();
+        if (tile.getCodec() == Protocol.CODEC_CACHED) {
+            CachedTile cached = tileCache.get(tile.getHash());
+            if (cached == null) {
+                Metrics.CACHE_MISSES.increment();
+                if (!cacheResetPending && cacheMissHandler != null) {
+                    cacheResetPending = true;
+                    cacheMissHandler.run();
+                }
+                return null;
+            }
+            if (target == null) {
+                return null;
+            }
+            if (cached.image != null) {
+                return new Placement(tile, null, cached.image);
+            }
+            // 第一次画出：把缓存的编码数据解码进新图像，再贴到引用的位置
+            EncodedFrame.Tile encoded = cached.encoded;
+            cached.image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+            return new Placement(new EncodedFrame.Tile(bounds, encoded.getCodec(), encoded.getData(),
+                    encoded.getOffset(), encoded.getLength(), tile.getHash()), cached.image, cached.image);
+        }
+        if (tile.getHash() != 0) {
+            tileCache.put(tile.getHash(), new CachedTile(tile), TileCache.pixelBytes(bounds));
+        }
+        return target == null ? null : new Placement(tile, target, null);
+    }
+
+    private static boolean overlapsAny(EncodedFrame.Tile tile, List<Placement> placements) {
+        for (Placement other : placements) {
+            if (other.tile.getBounds().intersects(tile.getBounds())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把互不重叠的若干区域并行解码到后台缓冲的对应位置（或缓存的图像中），
+     * 每个工作线程使用自己的编解码器；之后按顺序贴上缓存中的图像。期间持有后台缓冲的锁，界面线程不会画出半帧。
+     * 写完之后才记为待重绘，界面线程不会先取走区域、缩放了旧像素就把它清掉
+     * @param target 后台缓冲，不绘制时为null
+     */
+    private void decodeInto(List<Placement> placements, BufferedImage target) throws IOException {
+        if (placements.isEmpty()) {
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>(placements.size());
+        for (Placement placement : placements) {
+            EncodedFrame.Tile tile = placement.tile;
+            if (placement.decodeTo == null) {
+                continue;
+            }
+            Rectangle bounds = placement.decodeTo == target
+                    ? tile.getBounds()
+                    : new Rectangle(0, 0, tile.getBounds().width, tile.getBounds().height);
+            tasks.add(() -> {
+                FrameCodecs.forCurrentThread(tile.getCodec())
+                        .decode(tile.getData(), tile.getOffset(), tile.getLength(), placement.decodeTo, bounds);
+                return null;
+            });
+        }
+        if (target == null) {
+            TileWorkers.invokeAll(tasks);
+            return;
+        }
+        synchronized (target) {
+            TileWorkers.invokeAll(tasks);
+            for (Placement placement : placements) {
+                if (placement.copyFrom != null) {
+                    Rectangle bounds = placement.tile.getBounds();
+                    target.getRaster().setRect(bounds.x, bounds.y, placement.copyFrom.getRaster());
+                }
+            }
+            for (Placement placement : placements) {
+                markDirty(placement.tile.getBounds());
+            }
+        }
+    }
+
+    /**
+     * 一个区域的处理方式：解码到 decodeTo（后台缓冲或缓存的图像），再把 copyFrom 贴到后台缓冲的对应位置
+     */
+    private static final class Placement {
+        final EncodedFrame.Tile tile;
+        final BufferedImage decodeTo;
+        final BufferedImage copyFrom;
+
+        Placement(EncodedFrame.Tile tile, BufferedImage decodeTo, BufferedImage copyFrom) {
+            this.tile = tile;
+            this.decodeTo = decodeTo;
+            this.copyFrom = copyFrom;
+        }
+    }
+
+    /**
+     * 缓存中的区域：编码数据，以及第一次画出时解码的图像（之后的引用直接贴图）
+     */
+    private static final class CachedTile {
+        final EncodedFrame.Tile encoded;
+        BufferedImage image;    // 还没解码时为null
+
+        CachedTile(EncodedFrame.Tile encoded) {
+            this.encoded = encoded;
+        }
+    }
+
+    /**
+     * 记下后台缓冲中变化的区域，界面线程只重新缩放和重绘这些区域。须在区域写完之后、仍持有后台缓冲的锁时调用
+     */
+    private void markDirty(Rectangle region) {
+        synchronized (dirtyRegions) {
+            if (dirtyRegions.size() < MAX_DIRTY_REGIONS) {
+                dirtyRegions.add(region);
+                return;
+            }
+            Rectangle union = new Rectangle(region);
+            for (Rectangle other : dirtyRegions) {
+                union.add(other);
+            }
+            dirtyRegions.clear();
+            dirtyRegions.add(union);
+        }
+    }
+
+    /**
+     * 合并重绘：上一次重绘还没执行时不再重复提交，期间变化的区域一起重绘
+     */
+    private void scheduleRepaint() {
+        if (repaintScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(() -> {
+                repaintScheduled.set(false);
+                List<Rectangle> regions;
+                synchronized (dirtyRegions) {
+                    regions = new ArrayList<>(dirtyRegions);
+                    dirtyRegions.clear();
+                }
+                screenPanel.repaintImage(regions);
+                Metrics.FRAMES_SHOWN.increment();
+                frameShown.accept(shownSequence);
+            });
+        }
+    }
+
+    /**
+     * 接收线程收齐的一帧
+     */
+    public static class FrameUpdate {
+        /**
+         * 按协议格式读取一帧的各条消息，直到 MSG_FRAME_END（客户端接收和录像回放共用）
+         * @param codecMask 允许出现的编解码器
+         */
+        public static FrameUpdate readFrom(DataInput in, int codecMask) throws IOException {
+            FrameUpdate update = new FrameUpdate();
+            while (true) {
+                int messageType = in.readInt();
+                switch (messageType) {
+                    case Protocol.MSG_FRAME_FULL:
+                        update.setKeyFrame(in.readInt(), in.readInt());
+                        break;
+                        
+                    case Protocol.MSG_FRAME_TILES:
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            update.addTile(readTile(in, codecMask));
+                        }
+                        break;
+                        
+                    case Protocol.MSG_FRAME_COPY:
+                        int copyCount = in.readInt();
+                        for (int i = 0; i < copyCount; i++) {
+                            Rectangle source = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                            update.addCopy(new CopyRect(source, in.readInt(), in.readInt()));
+                        }
+                        break;
+                        
+                    case Protocol.MSG_FRAME_END:
+                        update.setSequence(in.readInt());
+                        return update;
+                        
+                    default:
+                        throw new IOException("未知的消息类型: " + messageType);
+                }
+            }
+        }
+
+        /**
+         * 读取一个区域的位置、编解码器、内容哈希和编码数据（缓存引用没有数据）
+         */
+        private static EncodedFrame.Tile readTile(DataInput in, int codecMask) throws IOException {
+            Rectangle bounds = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            int codec = in.readUnsignedByte();
+            long hash = in.readLong();
+            if (codec == Protocol.CODEC_CACHED ? hash == 0 : !FrameCodecs.supports(codecMask, codec)) {
+                throw new IOException("未协商的编解码器: " + codec);
+            }
+            int length = in.readInt();
+            if (length < 0 || length > Protocol.MAX_TILE_BYTES) {
+                throw new IOException("区域数据长度无效: " + length);
+            }
+            byte[] data = new byte[length];
+            in.readFully(data);
+            return new EncodedFrame.Tile(bounds, codec, data, 0, data.length, hash);
+        }
+
+        private int sequence;
+        private Dimension keyFrameSize;
+        private boolean skipped = false;        // 之后有关键帧，不必绘制（由解码器的锁保护）
+        private boolean cacheReset = false;     // 不是帧，而是清空区域缓存的标记
+        private long dataBytes = 0;
+        private final List<EncodedFrame.Patch> patches = new ArrayList<>();
+        private List<CopyRect> copies = new ArrayList<>();
+        private List<EncodedFrame.Tile> tiles = new ArrayList<>();
+
+        /**
+         * 关键帧：画面改为该尺寸，随后的区域覆盖整个画面
+         */
+        public void setKeyFrame(int width, int height) {
+            keyFrameSize = new Dimension(width, height);
+        }
+
+        /**
+         * 复制操作要在之前收到的区域贴上之后执行，所以另起一次更新
+         */
+        public void addCopy(CopyRect copy) {
+            if (!tiles.isEmpty()) {
+                endPatch();
+            }
+            copies.add(copy);
+        }
+
+        public void addTile(EncodedFrame.Tile tile) {
+            tiles.add(tile);
+            dataBytes += tile.getLength();
+        }
+
+        /**
+         * 各区域编码数据的字节数之和，由接收方计入 Metrics.RECEIVE_BYTES（录像回放读到的不计）
+         */
+        public long getDataBytes() {
+            return dataBytes;
+        }
+
+        private void endPatch() {
+            patches.add(new EncodedFrame.Patch(copies, tiles));
+            copies = new ArrayList<>();
+            tiles = new ArrayList<>();
+        }
+
+        /**
+         * 关键帧的画面尺寸，不是关键帧时为null
+         */
+        Dimension getKeyFrameSize() {
+            return keyFrameSize;
+        }
+
+        /**
+         * 按顺序执行的复制和区域
+         */
+        List<EncodedFrame.Patch> patches() {
+            if (!copies.isEmpty() || !tiles.isEmpty()) {
+                endPatch();
+            }
+            return patches;
+        }
+
+        public void setSequence(int sequence) {
+            this.sequence = sequence;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+    }
+}
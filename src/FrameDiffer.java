@@ -0,0 +1,212 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 帧差异检测器，按固定大小的瓦片比较相邻两帧的像素。
+ * 变化范围较大时先做滚动检测，把平移的部分表示为复制操作，剩下的才作为变化区域
+ */
+public class FrameDiffer {
+    // 变化瓦片的外接矩形至少为这么多个瓦片见方时才做滚动检测
+    private static final int SCROLL_MIN_TILES = 2;
+
+    private final int tileSize;
+    private final ScrollDetector scrollDetector = new ScrollDetector();
+    private int width;
+    private int height;
+    private int[] previous;     // 上一帧的像素
+    private int[] current;      // 当前帧的像素（非 INT_RGB 图像时使用）
+    private boolean[] changed;  // 每个瓦片是否变化
+    private List<CopyRect> copies = Collections.emptyList();
+
+    public FrameDiffer(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * 与上一帧比较，返回发生变化的区域（已合并相邻瓦片）。
+     * 检测到滚动时，变化区域是在执行 getCopies() 的复制操作之后仍然不同的部分
+     * @param image 当前帧
+     * @return 变化区域列表；首帧或尺寸变化时返回整帧区域
+     */
+    public List<Rectangle> diff(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] pixels = pixelsOf(image);
+
+        List<Rectangle> regions = new ArrayList<>();
+        copies = Collections.emptyList();
+        if (previous == null || w != width || h != height) {
+            width = w;
+            height = h;
+            previous = new int[w * h];
+            System.arraycopy(pixels, 0, previous, 0, w * h);
+            regions.add(new Rectangle(0, 0, w, h));
+            return regions;
+        }
+
+        int cols = (w + tileSize - 1) / tileSize;
+        int rows = (h + tileSize - 1) / tileSize;
+        if (changed == null || changed.length != cols * rows) {
+            changed = new boolean[cols * rows];
+        }
+        Rectangle bounds = markChangedTiles(pixels, cols, 0, 0, cols, rows);
+        if (bounds == null) {
+            return regions;
+        }
+
+        // 大范围变化时检测滚动，复制操作同样作用于上一帧，再重新比较
+        if (bounds.width >= tileSize * SCROLL_MIN_TILES && bounds.height >= tileSize * SCROLL_MIN_TILES) {
+            List<CopyRect> detected = scrollDetector.detect(previous, pixels, w, bounds);
+            if (!detected.isEmpty()) {
+                for (CopyRect copy : detected) {
+                    copy.apply(previous, w);
+                }
+                copies = detected;
+                // 复制只发生在外接矩形内，其余瓦片不用重新比较
+                markChangedTiles(pixels, cols, bounds.x / tileSize, bounds.y / tileSize,
+                        (bounds.x + bounds.width + tileSize - 1) / tileSize,
+                        (bounds.y + bounds.height + tileSize - 1) / tileSize);
+            }
+        }
+
+        // 逐行扫描瓦片，把同一行中连续变化的瓦片合并为一段
+        List<Rectangle> lastRow = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            int y = row * tileSize;
+            int th = Math.min(tileSize, h - y);
+            List<Rectangle> thisRow = new ArrayList<>();
+            Rectangle run = null;
+            for (int col = 0; col < cols; col++) {
+                int x = col * tileSize;
+                int tw = Math.min(tileSize, w - x);
+                if (changed[row * cols + col]) {
+                    copyTile(pixels, x, y, tw, th);
+                    if (run == null) {
+                        run = new Rectangle(x, y, tw, th);
+                    } else {
+                        run.width += tw;
+                    }
+                } else if (run != null) {
+                    thisRow.add(run);
+                    run = null;
+                }
+            }
+            if (run != null) {
+                thisRow.add(run);
+            }
+
+            // 与上一行水平范围相同的段向下合并
+            List<Rectangle> merged = new ArrayList<>();
+            for (Rectangle r : thisRow) {
+                Rectangle above = findSameSpan(lastRow, r);
+                if (above != null) {
+                    above.height += r.height;
+                    merged.add(above);
+                } else {
+                    regions.add(r);
+                    merged.add(r);
+                }
+            }
+            lastRow = merged;
+        }
+        return regions;
+    }
+
+    /**
+     * 最近一次 diff 检测到的复制操作，须在贴变化区域之前按顺序执行
+     */
+    public List<CopyRect> getCopies() {
+        return copies;
+    }
+
+    /**
+     * 计算变化区域占整帧的比例
+     */
+    public float changedRatio(List<Rectangle> regions) {
+        if (width == 0 || height == 0) {
+            return 1f;
+        }
+        long area = 0;
+        for (Rectangle r : regions) {
+            area += (long) r.width * r.height;
+        }
+        return (float) area / ((long) width * height);
+    }
+
+    /**
+     * 丢弃上一帧，下一次比较将返回整帧
+     */
+    public void reset() {
+        previous = null;
+    }
+
+    /**
+     * 标记指定瓦片范围内变化的瓦片（不更新上一帧）
+     * @return 变化瓦片的外接矩形，没有变化时返回null
+     */
+    private Rectangle markChangedTiles(int[] pixels, int cols, int fromCol, int fromRow, int toCol, int toRow) {
+        Rectangle bounds = null;
+        for (int row = fromRow; row < toRow; row++) {
+            int y = row * tileSize;
+            int th = Math.min(tileSize, height - y);
+            for (int col = fromCol; col < toCol; col++) {
+                int x = col * tileSize;
+                int tw = Math.min(tileSize, width - x);
+                boolean tileChanged = tileChanged(pixels, x, y, tw, th);
+                changed[row * cols + col] = tileChanged;
+                if (tileChanged) {
+                    Rectangle tile = new Rectangle(x, y, tw, th);
+                    bounds = bounds == null ? tile : bounds.union(tile);
+                }
+            }
+        }
+        return bounds;
+    }
+
+    private Rectangle findSameSpan(List<Rectangle> row, Rectangle r) {
+        for (Rectangle above : row) {
+            if (above.x == r.x && above.width == r.width && above.y + above.height == r.y) {
+                return above;
+            }
+        }
+        return null;
+    }
+
+    private boolean tileChanged(int[] pixels, int x, int y, int tw, int th) {
+        for (int j = 0; j < th; j++) {
+            int offset = (y + j) * width + x;
+            for (int i = 0; i < tw; i++) {
+                if (pixels[offset + i] != previous[offset + i]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void copyTile(int[] pixels, int x, int y, int tw, int th) {
+        for (int j = 0; j < th; j++) {
+            int offset = (y + j) * width + x;
+            System.arraycopy(pixels, offset, previous, offset, tw);
+        }
+    }
+
+    /**
+     * 取出图像的像素数组；截屏得到的 INT_RGB 图像直接使用其底层数组
+     */
+    private int[] pixelsOf(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] data = ScreenCapture.pixelsOf(image);
+        if (data != null) {
+            return data;
+        }
+        if (current == null || current.length != w * h) {
+            current = new int[w * h];
+        }
+        return image.getRGB(0, 0, w, h, current, 0, w);
+    }
+}
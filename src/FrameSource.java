@@ -0,0 +1,92 @@
+import java.awt.AWTException;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 服务端画面的来源：默认截取本机桌面（DesktopSource）；合成画面（SyntheticSource）和会话录像回放（ReplaySource）
+ * 不需要桌面，用于在没有图形界面的机器上配合 LoadGenerator 压测。启动服务端时通过系统属性选择：
+ * -Dremote.source=desktop（默认）
+ * -Dremote.source=text|video|static[:宽x高]（合成画面：滚动的文字、类似视频的噪声、静止画面，默认1920x1080）
+ * -Dremote.source=replay:录像文件.rdr（循环回放会话录像）
+ */
+public interface FrameSource {
+    String PROPERTY = "remote.source";
+
+    /**
+     * 所有显示器在虚拟桌面中的位置和大小，主显示器在最前
+     */
+    List<Rectangle> displayBounds();
+
+    /**
+     * 取出虚拟桌面中指定区域当前的画面。每次返回新的 TYPE_INT_RGB 图像（调用方会保留上一帧用于比较），
+     * 各路画面的截屏线程可能同时调用
+     * @param area 虚拟桌面坐标
+     */
+    BufferedImage capture(Rectangle area);
+
+    /**
+     * 把指定区域当前的画面写入调用方复用的图像，避免每帧分配整帧的像素数组。
+     * 默认实现调用 capture(area)，返回新的图像（Robot 截屏总是分配新的图像）
+     * @param area 虚拟桌面坐标
+     * @param target 复用的 TYPE_INT_RGB 图像，大小与区域相同，可以为null
+     * @return 写入了画面的 target，或新分配的图像
+     */
+    default BufferedImage capture(Rectangle area, BufferedImage target) {
+        return capture(area);
+    }
+
+    /**
+     * capture(area, target) 是否真的写入 target。不写入的来源（Robot 截屏）不必为它准备复用的图像
+     */
+    default boolean fillsTarget() {
+        return false;
+    }
+
+    /**
+     * 鼠标指针在虚拟桌面中的位置，无法获取时返回null
+     */
+    Point getPointerLocation();
+
+    /**
+     * 执行客户端输入用的 Robot
+     * @return 画面不是本机桌面时返回null，输入命令只解析和记录，不执行
+     */
+    Robot createRobot() throws AWTException;
+
+    /**
+     * 按系统属性创建画面来源
+     */
+    static FrameSource fromSystemProperty() throws AWTException, IOException {
+        String value = System.getProperty(PROPERTY, "desktop").trim();
+        String argument = null;
+        int colon = value.indexOf(':');
+        if (colon >= 0) {
+            argument = value.substring(colon + 1);
+            value = value.substring(0, colon);
+        }
+        switch (value.toLowerCase()) {
+            case "desktop":
+                return new DesktopSource();
+            case "replay":
+                if (argument == null || argument.isEmpty()) {
+                    throw new IllegalArgumentException("回放需要指定录像文件: -D" + PROPERTY + "=replay:文件.rdr");
+                }
+                return new ReplaySource(new RecordingReader(Paths.get(argument)));
+            default:
+                SyntheticSource.Pattern pattern = SyntheticSource.Pattern.valueOf(value.toUpperCase());
+                if (argument == null) {
+                    return new SyntheticSource(pattern, SyntheticSource.DEFAULT_WIDTH, SyntheticSource.DEFAULT_HEIGHT);
+                }
+                String[] size = argument.toLowerCase().split("x");
+                if (size.length != 2) {
+                    throw new IllegalArgumentException("画面大小格式应为 宽x高: " + argument);
+                }
+                return new SyntheticSource(pattern, Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()));
+        }
+    }
+}
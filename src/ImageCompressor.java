@@ -1,61 +1,174 @@
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Iterator;
 
 /**
- * 图像压缩类
+ * 基于 ImageIO 的图像压缩类（JPEG、PNG），实例不是线程安全的
  */
-public class ImageCompressor {
+public class ImageCompressor implements FrameCodec {
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+    
+    private final int codecId;
+    private final String formatName;
     private ImageWriter writer;
     private ImageWriteParam param;
+    private ImageReader reader;
+    private float quality = Protocol.IMAGE_QUALITY;
+    // 复用的编码缓冲区和图像输出流，稳态下每帧不再分配
+    private final ReusableOutputStream encodeBuffer = new ReusableOutputStream(INITIAL_BUFFER_SIZE);
+    private ImageOutputStream ios;
+    // JPEG：复用的字节排列图像，条带的像素直接从截屏的 int[] 转入，写入器不再逐行经过颜色模型转换
+    private BufferedImage bgrBuffer;
     
     public ImageCompressor() {
-        // 获取JPEG图像写入器
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+        this(Protocol.CODEC_JPEG, "jpg");
+    }
+    
+    /**
+     * @param codecId 协议中的编号
+     * @param formatName ImageIO 的格式名
+     */
+    public ImageCompressor(int codecId, String formatName) {
+        this.codecId = codecId;
+        this.formatName = formatName;
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
         if (writers.hasNext()) {
             writer = writers.next();
             param = writer.getDefaultWriteParam();
-            if (param.canWriteCompressed()) {
+            // 只有JPEG使用显式质量，PNG保持写入器默认的压缩级别
+            if (codecId == Protocol.CODEC_JPEG && param.canWriteCompressed()) {
                 param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
                 param.setCompressionQuality(Protocol.IMAGE_QUALITY);
             }
         }
     }
     
+    @Override
+    public int getId() {
+        return codecId;
+    }
+    
     /**
-     * 压缩图像为字节数组
+     * 设置JPEG压缩质量
+     * @param quality 质量（0.0-1.0）
+     */
+    @Override
+    public void setQuality(float quality) {
+        if (param != null && param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT && quality != this.quality) {
+            param.setCompressionQuality(quality);
+        }
+        this.quality = quality;
+    }
+    
+    public float getQuality() {
+        return quality;
+    }
+    
+    /**
+     * 压缩图像中的指定区域并追加写入输出流，不产生中间数组
      * @param image 原始图像
-     * @return 压缩后的字节数组
+     * @param region 需要压缩的区域
+     * @param out 输出流，通常是复用的帧缓冲区
+     * @return 写入的字节数
      * @throws IOException IO异常
      */
-    public byte[] compressImage(BufferedImage image) throws IOException {
-        if (writer == null) {
-            throw new IOException("JPEG writer not available");
+    public int compressImage(BufferedImage image, Rectangle region, OutputStream out) throws IOException {
+        int[] pixels = codecId == Protocol.CODEC_JPEG ? ScreenCapture.pixelsOf(image) : null;
+        if (pixels != null) {
+            encode(toBgr(pixels, image.getWidth(), region));
+        } else if (region.x == 0 && region.y == 0 && region.width == image.getWidth() && region.height == image.getHeight()) {
+            encode(image);
+        } else {
+            encode(image.getSubimage(region.x, region.y, region.width, region.height));
         }
-        
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (ImageOutputStream ios = ImageIO.createImageOutputStream(baos)) {
-            writer.setOutput(ios);
-            writer.write(null, new javax.imageio.IIOImage(image, null, null), param);
+        encodeBuffer.writeTo(out);
+        return encodeBuffer.size();
+    }
+    
+    @Override
+    public int encode(BufferedImage image, Rectangle region, OutputStream out) throws IOException {
+        return compressImage(image, region, out);
+    }
+    
+    /**
+     * 解码时直接写入目标图像的指定位置，不产生中间图像
+     */
+    @Override
+    public void decode(byte[] data, int offset, int length, BufferedImage target, Rectangle bounds) throws IOException {
+        if (reader == null) {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(formatName);
+            if (!readers.hasNext()) {
+                throw new IOException(formatName + " reader not available");
+            }
+            reader = readers.next();
         }
-        return baos.toByteArray();
+        reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(data, offset, length)), true, true);
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        readParam.setDestination(target);
+        readParam.setDestinationOffset(new Point(bounds.x, bounds.y));
+        reader.read(0, readParam);
     }
     
     /**
-     * 将BufferedImage转换为PNG格式的字节数组（备用方案）
-     * @param image 原始图像
-     * @return PNG格式的字节数组
-     * @throws IOException IO异常
+     * 把 INT_RGB 像素数组中的区域转入复用的 TYPE_3BYTE_BGR 图像，JPEG 写入器对这种布局直接读取字节
+     * @param pixels 整帧的像素数组
+     * @param stride 整帧宽度
+     * @return 与区域同样大小的图像，下次调用时被覆盖
      */
-    public byte[] imageToBytes(BufferedImage image) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
-        return baos.toByteArray();
+    private BufferedImage toBgr(int[] pixels, int stride, Rectangle region) {
+        long start = System.nanoTime();
+        int w = region.width;
+        int h = region.height;
+        if (bgrBuffer == null || bgrBuffer.getWidth() < w || bgrBuffer.getHeight() < h) {
+            int bw = bgrBuffer == null ? w : Math.max(w, bgrBuffer.getWidth());
+            int bh = bgrBuffer == null ? h : Math.max(h, bgrBuffer.getHeight());
+            bgrBuffer = new BufferedImage(bw, bh, BufferedImage.TYPE_3BYTE_BGR);
+        }
+        byte[] bytes = ((DataBufferByte) bgrBuffer.getRaster().getDataBuffer()).getData();
+        int rowBytes = bgrBuffer.getWidth() * 3;
+        for (int y = 0; y < h; y++) {
+            int from = (region.y + y) * stride + region.x;
+            int to = y * rowBytes;
+            for (int x = 0; x < w; x++) {
+                int rgb = pixels[from + x];
+                bytes[to++] = (byte) rgb;
+                bytes[to++] = (byte) (rgb >> 8);
+                bytes[to++] = (byte) (rgb >> 16);
+            }
+        }
+        Metrics.ENCODE_CONVERT.recordSince(start);
+        return w == bgrBuffer.getWidth() && h == bgrBuffer.getHeight() ? bgrBuffer : bgrBuffer.getSubimage(0, 0, w, h);
+    }
+    
+    /**
+     * 编码到复用的缓冲区；ImageOutputStream 只创建一次，写完后刷新到缓冲区
+     */
+    private void encode(BufferedImage image) throws IOException {
+        if (writer == null) {
+            throw new IOException(formatName + " writer not available");
+        }
+        
+        encodeBuffer.reset();
+        if (ios == null) {
+            ios = new MemoryCacheImageOutputStream(encodeBuffer);
+            writer.setOutput(ios);
+        }
+        writer.write(null, new IIOImage(image, null, null), param);
+        ios.flush();
     }
 }
 
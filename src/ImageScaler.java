@@ -0,0 +1,188 @@
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * 服务端缩小画面：客户端窗口比被观看的区域小时，先缩小到窗口大小再比较和编码，
+ * 不必把原始分辨率的画面传过去再由客户端缩小。
+ * 缩放方式启动时通过系统属性选择：
+ * -Dremote.scale=box（默认，按面积平均，文字清晰）
+ * -Dremote.scale=bilinear（Java2D双线性插值）
+ * -Dremote.scale=nearest（取最近像素，最快）
+ * 实例复用输出图像和中间数组，不是线程安全的
+ */
+public class ImageScaler {
+    public static final String PROPERTY = "remote.scale";
+    // 缩放比例取 1/SCALE_STEPS 的整数倍（向上取），窗口尺寸的小变化不会产生新的画面流
+    private static final int SCALE_STEPS = 32;
+
+    public enum Quality {
+        NEAREST,
+        BILINEAR,
+        BOX;
+
+        public static Quality fromSystemProperty() {
+            return valueOf(System.getProperty(PROPERTY, "box").trim().toUpperCase());
+        }
+    }
+
+    private final Quality quality;
+    private final int width;
+    private final int height;
+    private BufferedImage output;
+    private int[] source = new int[0];  // 非 INT_RGB 图像时使用
+    private int mappedWidth = -1;       // columnMap 对应的源图像宽度
+    private int[] columnMap;            // 每个目标列对应的源列（nearest），或每个目标列起始的源列（box）
+    private int[] redBlueSums;          // box：当前目标行覆盖的源行逐列累加的红蓝（打包）
+    private int[] greenSums;            // box：同上，绿
+
+    /**
+     * @param quality 缩放方式
+     * @param width 输出宽度
+     * @param height 输出高度
+     */
+    public ImageScaler(Quality quality, int width, int height) {
+        this.quality = quality;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 按客户端窗口计算输出尺寸：保持宽高比，只缩小不放大
+     * @param source 被观看区域的尺寸
+     * @param viewportWidth 客户端窗口宽度，0表示不缩放
+     * @param viewportHeight 客户端窗口高度，0表示不缩放
+     */
+    public static Dimension fit(Dimension source, int viewportWidth, int viewportHeight) {
+        if (viewportWidth <= 0 || viewportHeight <= 0
+                || (viewportWidth >= source.width && viewportHeight >= source.height)) {
+            return new Dimension(source);
+        }
+        double scale = Math.min((double) viewportWidth / source.width, (double) viewportHeight / source.height);
+        int steps = Math.max(1, Math.min(SCALE_STEPS, (int) Math.ceil(scale * SCALE_STEPS)));
+        if (steps == SCALE_STEPS) {
+            return new Dimension(source);
+        }
+        return new Dimension(Math.max(1, (source.width * steps + SCALE_STEPS - 1) / SCALE_STEPS),
+                Math.max(1, (source.height * steps + SCALE_STEPS - 1) / SCALE_STEPS));
+    }
+
+    /**
+     * 缩放图像；尺寸已经等于输出尺寸时直接返回原图
+     * @return 输出图像，下次调用时被覆盖
+     */
+    public BufferedImage scale(BufferedImage image) {
+        int sw = image.getWidth();
+        int sh = image.getHeight();
+        if (sw == width && sh == height) {
+            return image;
+        }
+        if (output == null) {
+            output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        // 源图像比输出小时（不会出现在缩小画面时）只能插值
+        if (quality == Quality.BILINEAR || sw < width || sh < height) {
+            Graphics2D g = output.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            return output;
+        }
+        int[] pixels = pixelsOf(image);
+        int[] target = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+        if (quality == Quality.NEAREST) {
+            scaleNearest(pixels, sw, sh, target);
+        } else {
+            scaleBox(pixels, sw, sh, target);
+        }
+        return output;
+    }
+
+    private void scaleNearest(int[] pixels, int sw, int sh, int[] target) {
+        if (mappedWidth != sw) {
+            mappedWidth = sw;
+            columnMap = new int[width];
+            for (int x = 0; x < width; x++) {
+                columnMap[x] = (int) (((long) x * sw + sw / 2) / width);
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            int row = (int) (((long) y * sh + sh / 2) / height) * sw;
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                target[offset + x] = pixels[row + columnMap[x]];
+            }
+        }
+    }
+
+    /**
+     * 每个目标像素取其覆盖的源像素的平均值。先把一个目标行覆盖的源行逐列累加（红蓝打包在一个int里，
+     * 行数不超过 SCALE_STEPS，不会进位），再按目标列分段求和；两遍都是顺序访问，没有按像素的下标查表
+     */
+    private void scaleBox(int[] pixels, int sw, int sh, int[] target) {
+        if (mappedWidth != sw) {
+            mappedWidth = sw;
+            columnMap = new int[width + 1];
+            for (int x = 0; x <= width; x++) {
+                columnMap[x] = (int) ((long) x * sw / width);
+            }
+            redBlueSums = new int[sw];
+            greenSums = new int[sw];
+        }
+        int sy = 0;
+        for (int y = 0; y < height; y++) {
+            int rowEnd = (int) ((long) (y + 1) * sh / height);
+            int rows = rowEnd - sy;
+            Arrays.fill(redBlueSums, 0);
+            Arrays.fill(greenSums, 0);
+            for (; sy < rowEnd; sy++) {
+                int offset = sy * sw;
+                for (int x = 0; x < sw; x++) {
+                    int rgb = pixels[offset + x];
+                    redBlueSums[x] += rgb & 0xFF00FF;
+                    greenSums[x] += rgb & 0x00FF00;
+                }
+            }
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int from = columnMap[x];
+                int to = columnMap[x + 1];
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int k = from; k < to; k++) {
+                    r += redBlueSums[k] >>> 16;
+                    g += greenSums[k];
+                    b += redBlueSums[k] & 0xFFFF;
+                }
+                int count = (to - from) * rows;
+                r = (r + count / 2) / count;
+                g = ((g >>> 8) + count / 2) / count;
+                b = (b + count / 2) / count;
+                target[offset + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * 取出图像的像素数组；截屏得到的 INT_RGB 图像直接使用其底层数组
+     */
+    private int[] pixelsOf(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] data = ScreenCapture.pixelsOf(image);
+        if (data != null) {
+            return data;
+        }
+        if (source.length != w * h) {
+            source = new int[w * h];
+        }
+        return image.getRGB(0, 0, w, h, source, 0, w);
+    }
+}
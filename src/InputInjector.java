@@ -0,0 +1,128 @@
+import java.awt.AWTException;
+import java.awt.Point;
+import java.awt.Robot;
+import java.awt.event.InputEvent;
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * 输入注入器，读取客户端命令并用Robot模拟鼠标键盘操作；画面来源不是本机桌面时只读取和记录命令
+ */
+public class InputInjector {
+    private Robot robot;                                // 不执行输入时为null
+    private volatile Point origin = new Point(0, 0);   // 客户端所看画面在虚拟桌面中的左上角
+    private SessionRecorder recorder;                   // 开启会话录像时记录执行过的命令
+    
+    public InputInjector(FrameSource source) throws AWTException {
+        this.robot = source.createRobot();
+    }
+    
+    /**
+     * 设置鼠标坐标的原点，客户端发来的坐标相对于它正在观看的画面区域
+     */
+    public void setOrigin(Point origin) {
+        this.origin = new Point(origin);
+    }
+    
+    /**
+     * 设置会话录像，之后执行的命令都会被记录；为null时不记录
+     */
+    public void setRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    /**
+     * 读取一条命令的字段并执行
+     * @param command 命令操作码
+     * @param in 命令字段所在的输入
+     * @throws IOException 读取失败或命令未知
+     */
+    public void execute(int command, DataInput in) throws IOException {
+        long start = System.nanoTime();
+        switch (command) {
+            case Protocol.CMD_MOUSE_MOVE:
+                MouseEventData mouseMove = MouseEventData.readFrom(in);
+                if (robot != null) {
+                    robot.mouseMove(origin.x + mouseMove.getX(), origin.y + mouseMove.getY());
+                }
+                recordMouse(command, mouseMove);
+                break;
+                
+            case Protocol.CMD_MOUSE_PRESS:
+                MouseEventData mousePress = MouseEventData.readFrom(in);
+                int button = mousePress.getButton();
+                int javaButton = convertButton(button);
+                if (robot != null) {
+                    robot.mousePress(javaButton);
+                }
+                recordMouse(command, mousePress);
+                break;
+                
+            case Protocol.CMD_MOUSE_RELEASE:
+                MouseEventData mouseRelease = MouseEventData.readFrom(in);
+                int releaseButton = convertButton(mouseRelease.getButton());
+                if (robot != null) {
+                    robot.mouseRelease(releaseButton);
+                }
+                recordMouse(command, mouseRelease);
+                break;
+                
+            case Protocol.CMD_MOUSE_WHEEL:
+                MouseEventData mouseWheel = MouseEventData.readFrom(in);
+                if (robot != null) {
+                    robot.mouseWheel(mouseWheel.getWheelRotation());
+                }
+                recordMouse(command, mouseWheel);
+                break;
+                
+            case Protocol.CMD_KEY_PRESS:
+                KeyEventData keyPress = KeyEventData.readFrom(in);
+                if (robot != null) {
+                    robot.keyPress(keyPress.getKeyCode());
+                }
+                recordKey(command, keyPress);
+                break;
+                
+            case Protocol.CMD_KEY_RELEASE:
+                KeyEventData keyRelease = KeyEventData.readFrom(in);
+                if (robot != null) {
+                    robot.keyRelease(keyRelease.getKeyCode());
+                }
+                recordKey(command, keyRelease);
+                break;
+                
+            default:
+                // 各命令字段长度不同，无法跳过未知命令
+                throw new IOException("未知的命令: " + command);
+        }
+        Metrics.INPUT_INJECT.recordSince(start);
+    }
+    
+    private void recordMouse(int command, MouseEventData data) {
+        if (recorder != null) {
+            recorder.recordMouse(command, data);
+        }
+    }
+    
+    private void recordKey(int command, KeyEventData data) {
+        if (recorder != null) {
+            recorder.recordKey(command, data);
+        }
+    }
+    
+    /**
+     * 转换按钮代码（1=左键, 2=中键, 3=右键）
+     */
+    private int convertButton(int button) {
+        switch (button) {
+            case 1:
+                return InputEvent.BUTTON1_MASK;
+            case 2:
+                return InputEvent.BUTTON2_MASK;
+            case 3:
+                return InputEvent.BUTTON3_MASK;
+            default:
+                return InputEvent.BUTTON1_MASK;
+        }
+    }
+}
@@ -1,11 +1,11 @@
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
- * 键盘事件数据类
+ * 键盘事件数据类，线上格式为 键码、字符 两个varint
  */
-public class KeyEventData implements Serializable {
-    private static final long serialVersionUID = 1L;
-    
+public class KeyEventData {
     private int keyCode;
     private char keyChar;
     
@@ -21,6 +21,23 @@ public class KeyEventData implements Serializable {
     public char getKeyChar() {
         return keyChar;
     }
+    
+    /**
+     * 按协议格式写出事件字段（不含操作码）
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        Protocol.writeVarInt(out, keyCode);
+        Protocol.writeVarInt(out, keyChar);
+    }
+    
+    /**
+     * 按协议格式读取事件字段（不含操作码）
+     */
+    public static KeyEventData readFrom(DataInput in) throws IOException {
+        int keyCode = Protocol.readVarInt(in);
+        char keyChar = (char) Protocol.readVarInt(in);
+        return new KeyEventData(keyCode, keyChar);
+    }
 }
 
 
@@ -0,0 +1,378 @@
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 无界面的压测客户端：向服务端建立大量连接，每个连接按协议接收帧（只解析、不解码）并回复确认，
+ * 按设定的频率发送鼠标移动，定期打印吞吐量和帧间隔的分布。指定服务端的JMX地址时，同时打印服务端的
+ * 帧延迟（发出到确认）p99、CPU和堆内存。服务端用合成画面（-Dremote.source=text 等）时，
+ * 在没有桌面的机器上也能找到连接数的上限。接收线程的执行方式同样由 -Dremote.executor 选择，
+ * 各连接请求的颜色深度同样由 -Dremote.depth 选择
+ */
+public class LoadGenerator {
+    private static final Metrics.Histogram FRAME_GAP =
+            Metrics.timer("loadgen.frame.gap", "同一连接相邻两帧收齐的间隔");
+    private static final long REPORT_INTERVAL_MILLIS = 5000;
+    // 依次建立连接的间隔，避免超出服务端监听队列的长度
+    private static final long CONNECT_INTERVAL_MILLIS = 10;
+
+    private final String host;
+    private final int port;
+    private final List<Viewer> viewers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final PixelFormat pixelFormat = PixelFormat.fromSystemProperty();
+    private final ExecutorService executor = ExecutionMode.fromSystemProperty("loadgen");
+    private final ScheduledExecutorService inputScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "loadgen-input");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerStats serverStats;        // 未指定JMX地址时为null
+
+    public LoadGenerator(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * 连接服务端的JMX，压测期间读取服务端的指标。服务端需以
+     * -Dcom.sun.management.jmxremote.port=端口 -Dcom.sun.management.jmxremote.authenticate=false
+     * -Dcom.sun.management.jmxremote.ssl=false 启动
+     * @param address host:port
+     */
+    public void connectJmx(String address) throws IOException {
+        serverStats = new ServerStats(address);
+    }
+
+    /**
+     * 运行一次压测
+     * @param clients 连接数
+     * @param seconds 所有连接建立后持续的秒数
+     * @param movesPerSecond 每个连接每秒发送的鼠标移动数，0表示不发送输入
+     */
+    public void run(int clients, int seconds, int movesPerSecond) throws Exception {
+        // 每个连接的接收循环长期占用一个任务，超出线程池大小的连接永远轮不到执行
+        int capacity = ExecutionMode.maxConcurrentTasks(executor);
+        if (clients > capacity) {
+            System.err.println("连接数超过执行器的线程数，只建立 " + capacity + " 个");
+            clients = capacity;
+        }
+        System.out.println("建立 " + clients + " 个连接: " + host + ":" + port);
+        for (int i = 0; i < clients; i++) {
+            try {
+                Viewer viewer = new Viewer(i);
+                viewers.add(viewer);
+                executor.execute(viewer);
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                System.err.println("第 " + (i + 1) + " 个连接失败: " + e.getMessage());
+            }
+            Thread.sleep(CONNECT_INTERVAL_MILLIS);
+        }
+        if (movesPerSecond > 0) {
+            long period = Math.max(1, 1000 / movesPerSecond);
+            inputScheduler.scheduleAtFixedRate(this::sendInput, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        // 爬坡结束后从零开始统计，结果只反映稳定状态
+        Metrics.reset();
+        if (serverStats != null) {
+            serverStats.resetMetrics();
+        }
+        long start = System.currentTimeMillis();
+        long end = start + seconds * 1000L;
+        Report total = new Report(start);
+        Report interval = new Report(start);
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(REPORT_INTERVAL_MILLIS, Math.max(1, end - System.currentTimeMillis())));
+            System.out.println(interval.finish());
+            interval = new Report(System.currentTimeMillis());
+        }
+        System.out.println("== 总计 ==");
+        System.out.println(total.finish());
+        stop();
+    }
+
+    private void sendInput() {
+        long now = System.currentTimeMillis();
+        for (Viewer viewer : viewers) {
+            viewer.sendMouseMove(now);
+        }
+    }
+
+    private void stop() {
+        inputScheduler.shutdownNow();
+        for (Viewer viewer : viewers) {
+            viewer.close();
+        }
+        executor.shutdownNow();
+        if (serverStats != null) {
+            serverStats.close();
+        }
+    }
+
+    /**
+     * 一段时间内的统计：本进程的指标取两次快照之差，服务端的指标取当前值（爬坡后清零过）
+     */
+    private final class Report {
+        private final long start;
+        private final long frames = Metrics.FRAMES_RECEIVED.get();
+        private final long bytes = Metrics.RECEIVE_BYTES.get();
+        private final Metrics.Snapshot gaps = FRAME_GAP.snapshot();
+
+        Report(long start) {
+            this.start = start;
+        }
+
+        String finish() {
+            double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+            Metrics.Snapshot gap = FRAME_GAP.snapshot().since(gaps);
+            int connected = 0;
+            for (Viewer viewer : viewers) {
+                if (viewer.running) {
+                    connected++;
+                }
+            }
+            double fps = (Metrics.FRAMES_RECEIVED.get() - frames) / seconds;
+            StringBuilder line = new StringBuilder(String.format(
+                    "连接 %d（失败 %d，断开 %d） 帧 %.0f/s（每连接 %.1f/s） 接收 %.1f MB/s 帧间隔 p50 %d ms p99 %d ms max %d ms",
+                    connected, failures.get(), disconnects.get(), fps, connected == 0 ? 0 : fps / connected,
+                    (Metrics.RECEIVE_BYTES.get() - bytes) / seconds / (1024 * 1024),
+                    gap.getPercentile(0.5) / 1000, gap.getPercentile(0.99) / 1000, gap.getMax() / 1000));
+            if (serverStats != null) {
+                line.append(" | 服务端 ").append(serverStats.describe());
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * 一个模拟的观看端：握手后接收帧并确认，不解码、不显示
+     */
+    private final class Viewer implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final int codecMask;
+        private final Rectangle display;
+        private final int index;
+        private volatile boolean running = true;
+
+        Viewer(int index) throws IOException {
+            this.index = index;
+            socket = new Socket(host, port);
+            try {
+                socket.setTcpNoDelay(true);
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                socket.setSoTimeout(Protocol.HANDSHAKE_TIMEOUT);
+                out.writeInt(Protocol.MAGIC);
+                out.writeByte(Protocol.VERSION);
+                out.writeByte(FrameCodecs.SUPPORTED);
+                out.flush();
+                int version = in.readUnsignedByte();
+                if (version < Protocol.MIN_VERSION || version > Protocol.VERSION) {
+                    throw new IOException("服务器不支持的协议版本: " + version);
+                }
+                codecMask = in.readUnsignedByte();
+                int displayCount = in.readUnsignedByte();
+                if (displayCount == 0) {
+                    throw new IOException("服务器没有可用的显示器");
+                }
+                display = new Rectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                for (int i = 1; i < displayCount; i++) {
+                    in.readFully(new byte[16]);
+                }
+                socket.setSoTimeout(0);
+                if (pixelFormat != PixelFormat.TRUE_COLOR) {
+                    out.writeByte(Protocol.CMD_PIXEL_FORMAT);
+                    Protocol.writeVarInt(out, pixelFormat.getId());
+                    out.flush();
+                }
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                DataInputStream frameIn = new DataInputStream(new ChunkedInput(in, this::handleControl));
+                long last = 0;
+                while (running) {
+                    FrameDecoder.FrameUpdate update = FrameDecoder.FrameUpdate.readFrom(frameIn, codecMask);
+                    long now = System.nanoTime();
+                    if (last != 0) {
+                        FRAME_GAP.record((now - last) / 1000);
+                    }
+                    last = now;
+                    Metrics.RECEIVE_BYTES.add(update.getDataBytes());
+                    Metrics.FRAMES_RECEIVED.increment();
+                    sendAck(update.getSequence());
+                }
+            } catch (IOException e) {
+                if (running) {
+                    disconnects.incrementAndGet();
+                    System.err.println("第 " + (index + 1) + " 个连接断开: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * 控制消息只读出字段，不处理
+         */
+        private void handleControl(int messageType, DataInputStream in) throws IOException {
+            switch (messageType) {
+                case Protocol.MSG_STREAM_INFO:
+                    in.readFully(new byte[RecordingWriter.STREAM_INFO_LENGTH]);
+                    break;
+                case Protocol.MSG_CURSOR:
+                    in.readInt();
+                    in.readInt();
+                    break;
+                case Protocol.MSG_CACHE_RESET:
+                    break;
+                default:
+                    throw new IOException("未知的消息类型: " + messageType);
+            }
+        }
+
+        private void sendAck(int sequence) throws IOException {
+            synchronized (out) {
+                out.writeByte(Protocol.CMD_FRAME_ACK);
+                Protocol.writeVarInt(out, sequence);
+                out.flush();
+            }
+        }
+
+        /**
+         * 沿一个椭圆移动鼠标，各连接错开相位
+         */
+        void sendMouseMove(long now) {
+            if (!running) {
+                return;
+            }
+            double angle = now / 1000.0 + index;
+            int x = (int) (display.width / 2 + display.width / 3 * Math.cos(angle));
+            int y = (int) (display.height / 2 + display.height / 3 * Math.sin(angle));
+            try {
+                synchronized (out) {
+                    out.writeByte(Protocol.CMD_MOUSE_MOVE);
+                    new MouseEventData(x, y, 0).writeTo(out);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            running = false;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 已关闭
+            }
+        }
+    }
+
+    /**
+     * 通过JMX读取服务端进程的CPU、堆内存、线程数和帧延迟
+     */
+    private static final class ServerStats {
+        private final JMXConnector connector;
+        private final MBeanServerConnection connection;
+        private final ObjectName operatingSystem;
+        private final ObjectName memory;
+        private final ObjectName threading;
+        private final ObjectName metrics;
+
+        ServerStats(String address) throws IOException {
+            connector = JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + address + "/jmxrmi"));
+            connection = connector.getMBeanServerConnection();
+            try {
+                operatingSystem = new ObjectName("java.lang:type=OperatingSystem");
+                memory = new ObjectName("java.lang:type=Memory");
+                threading = new ObjectName("java.lang:type=Threading");
+                metrics = new ObjectName(Metrics.OBJECT_NAME);
+            } catch (MalformedObjectNameException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void resetMetrics() {
+            try {
+                connection.invoke(metrics, "reset", null, null);
+            } catch (Exception e) {
+                System.err.println("清零服务端指标失败: " + e.getMessage());
+            }
+        }
+
+        String describe() {
+            try {
+                double cpu = (Double) connection.getAttribute(operatingSystem, "ProcessCpuLoad");
+                CompositeData heap = (CompositeData) connection.getAttribute(memory, "HeapMemoryUsage");
+                int threads = (Integer) connection.getAttribute(threading, "ThreadCount");
+                long latency = (Long) connection.getAttribute(metrics, "server.frame.latency.p99");
+                return String.format("帧延迟 p99 %d ms CPU %.0f%% 堆 %d/%d MB 线程 %d",
+                        latency / 1000, cpu * 100, (Long) heap.get("used") / (1024 * 1024),
+                        (Long) heap.get("max") / (1024 * 1024), threads);
+            } catch (Exception e) {
+                return "读取失败: " + e.getMessage();
+            }
+        }
+
+        void close() {
+            try {
+                connector.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("用法: java LoadGenerator 服务器[:端口] [连接数] [秒数] [每秒鼠标移动数] [服务端JMX地址 host:port]");
+            return;
+        }
+        String host = args[0];
+        int port = Protocol.DEFAULT_PORT;
+        if (host.contains(":")) {
+            String[] parts = host.split(":");
+            host = parts[0];
+            port = Integer.parseInt(parts[1]);
+        }
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int movesPerSecond = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        LoadGenerator generator = new LoadGenerator(host, port);
+        if (args.length > 4) {
+            generator.connectJmx(args[4]);
+        }
+        generator.run(clients, seconds, movesPerSecond);
+    }
+}
@@ -0,0 +1,380 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热路径上的计数器和直方图，可在任意线程中记录，开销只有几次原子操作。
+ * 所有指标通过JMX（RemoteDesktop:type=Metrics，用 jconsole 连接本机进程查看）导出，
+ * 客户端还可以在画面上叠加显示（StatsOverlay）。耗时单位为微秒
+ */
+public final class Metrics {
+    public static final String OBJECT_NAME = "RemoteDesktop:type=Metrics";
+    private static final Map<String, Object> REGISTRY = new ConcurrentSkipListMap<>();
+
+    // 服务端
+    public static final Histogram CAPTURE = timer("server.capture", "截屏耗时");
+    public static final Histogram SCALE = timer("server.scale", "缩小画面耗时");
+    public static final Histogram REDUCE = timer("server.reduce", "降低颜色深度耗时（16位、8位调色板、灰度）");
+    public static final Histogram DIFF = timer("server.diff", "帧差异和滚动检测耗时");
+    public static final Histogram ENCODE = timer("server.encode", "编码一帧的耗时（并行编码各条带）");
+    public static final Histogram TILE_ENCODE = timer("server.encode.tile", "编码一个条带的耗时");
+    public static final Histogram ENCODE_CONVERT = timer("server.encode.convert", "JPEG编码前把条带的像素转成字节排列的耗时");
+    public static final Histogram FRAME_BYTES = histogram("server.frame.bytes", "bytes", "每帧编码后的字节数");
+    public static final Counter FRAMES_UNCHANGED = counter("server.frames.unchanged", "截屏后画面没有变化、不发布的次数");
+    public static final Counter FRAMES_PUBLISHED = counter("server.frames.published", "编码发布的帧数");
+    public static final Counter FRAMES_MERGED = counter("server.frames.merged", "客户端跟不上时合并掉（未单独发送）的帧数");
+    public static final Counter FRAMES_RESYNC = counter("server.frames.resync", "客户端落后太多、改为等待关键帧的次数");
+    public static final Histogram SEND = timer("server.send", "写出一帧的耗时（阻塞模式，含套接字阻塞）");
+    public static final Counter SEND_BYTES = counter("server.send.bytes", "发出的字节数");
+    public static final Counter SEND_STALLS = counter("server.send.stalls", "套接字缓冲区已满、写不完的次数（NIO模式）");
+    public static final Histogram FRAME_LATENCY = timer("server.frame.latency", "发出一帧到客户端确认的时间");
+    public static final Histogram INPUT_INJECT = timer("server.input.inject", "执行一条输入命令的耗时");
+    public static final Counter CACHE_HITS = counter("server.cache.hits", "客户端已缓存、只发送引用的区域数");
+    public static final Counter CACHE_SAVED_BYTES = counter("server.cache.saved.bytes", "因客户端已缓存而不必发送的编码数据字节数");
+    public static final Counter RECORD_BYTES = counter("server.record.bytes", "写入会话录像的字节数");
+    public static final Counter RECORD_DROPPED = counter("server.record.dropped", "磁盘跟不上、丢弃的录像记录数");
+
+    // 客户端
+    public static final Counter FRAMES_RECEIVED = counter("client.frames.received", "收到的帧数");
+    public static final Counter FRAMES_SKIPPED = counter("client.frames.skipped", "解码跟不上、被关键帧取代而未解码的帧数");
+    public static final Counter FRAMES_SHOWN = counter("client.frames.shown", "重绘的次数（多帧可能合并为一次）");
+    public static final Counter RECEIVE_BYTES = counter("client.receive.bytes", "收到的编码数据字节数");
+    public static final Counter CACHE_MISSES = counter("client.cache.misses", "引用了不在缓存中的区域（缓存不同步）的次数");
+    public static final Histogram DECODE = timer("client.decode", "解码一帧的耗时");
+    public static final Histogram PAINT = timer("client.paint", "绘制画面的耗时");
+    public static final Histogram INPUT_DELAY = timer("client.input.delay", "输入事件发生到交给命令发送器的时间（毫秒精度，鼠标移动另有合并延迟）");
+
+    private static boolean registered = false;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String description) {
+        return register(name, new Counter(description));
+    }
+
+    public static Histogram timer(String name, String description) {
+        return histogram(name, "us", description);
+    }
+
+    public static Histogram histogram(String name, String unit, String description) {
+        return register(name, new Histogram(unit, description));
+    }
+
+    private static <T> T register(String name, T metric) {
+        Object existing = REGISTRY.putIfAbsent(name, metric);
+        if (existing != null) {
+            throw new IllegalArgumentException("指标重名: " + name);
+        }
+        return metric;
+    }
+
+    /**
+     * 在平台MBeanServer中注册，重复调用无效果；失败时只打印错误
+     */
+    public static synchronized void registerMBean() {
+        if (registered) return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException | RuntimeException e) {
+            System.err.println("注册JMX指标失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 清零所有指标
+     */
+    public static void reset() {
+        for (Object metric : REGISTRY.values()) {
+            if (metric instanceof Counter) {
+                ((Counter) metric).reset();
+            } else {
+                ((Histogram) metric).reset();
+            }
+        }
+    }
+
+    /**
+     * 计数器
+     */
+    public static final class Counter {
+        private final String description;
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String description) {
+            this.description = description;
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        private void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * 对数分桶的直方图：每个2的幂区间再等分为 SUB_BUCKETS 个桶，百分位的相对误差不超过 1/SUB_BUCKETS
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+        private final String unit;
+        private final String description;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram(String unit, String description) {
+            this.unit = unit;
+            this.description = description;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * 记录一个值，负数按0记
+         */
+        public void record(long value) {
+            value = Math.max(0, value);
+            counts.incrementAndGet(bucketOf(value));
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // 重试
+            }
+        }
+
+        /**
+         * 记录从 startNanos（System.nanoTime()）到现在的耗时，单位微秒
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1000);
+        }
+
+        /**
+         * 当前累计的分布（各桶之间不是原子读取，并发记录时可能差一两个样本）
+         */
+        public Snapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+            }
+            return new Snapshot(copy, sum.sum(), max.get());
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            sum.reset();
+            max.set(0);
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * 桶内的最大值
+         */
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+            return lower + (1L << shift) - 1;
+        }
+    }
+
+    /**
+     * 直方图某一时刻的分布；两次快照相减得到这段时间内的分布
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;     // 记录过的最大值，相减得到的快照按桶估计
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        public long getMax() {
+            return count == 0 ? 0 : max;
+        }
+
+        /**
+         * @param quantile 0到1之间，如0.99
+         * @return 该百分位所在桶的上界（不超过最大值），没有样本时为0
+         */
+        public long getPercentile(double quantile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(Histogram.upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * 本快照与较早的快照之差，即这段时间内记录的值
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] diff = new long[counts.length];
+            int highest = -1;
+            for (int i = 0; i < counts.length; i++) {
+                diff[i] = counts[i] - earlier.counts[i];
+                if (diff[i] > 0) {
+                    highest = i;
+                }
+            }
+            long estimatedMax = highest < 0 ? 0 : Math.min(Histogram.upperBoundOf(highest), max);
+            return new Snapshot(diff, sum - earlier.sum, estimatedMax);
+        }
+    }
+
+    /**
+     * 把所有指标导出为JMX属性：计数器一个属性，直方图按 名称.count/.mean/.p50/.p90/.p99/.max 导出
+     */
+    private static final class MetricsMBean implements DynamicMBean {
+        private static final String[] STATS = {"count", "mean", "p50", "p90", "p99", "max"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object metric = REGISTRY.get(attribute);
+            if (metric instanceof Counter) {
+                return ((Counter) metric).get();
+            }
+            int dot = attribute.lastIndexOf('.');
+            metric = dot < 0 ? null : REGISTRY.get(attribute.substring(0, dot));
+            if (!(metric instanceof Histogram)) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            Snapshot snapshot = ((Histogram) metric).snapshot();
+            switch (attribute.substring(dot + 1)) {
+                case "count": return snapshot.getCount();
+                case "mean": return snapshot.getMean();
+                case "p50": return snapshot.getPercentile(0.5);
+                case "p90": return snapshot.getPercentile(0.9);
+                case "p99": return snapshot.getPercentile(0.99);
+                case "max": return snapshot.getMax();
+                default: throw new AttributeNotFoundException(attribute);
+            }
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("指标是只读的: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                } catch (AttributeNotFoundException e) {
+                    // 按JMX约定，取不到的属性不出现在结果中
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            if ("reset".equals(actionName)) {
+                Metrics.reset();
+                return null;
+            }
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : REGISTRY.entrySet()) {
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    attributes.add(new MBeanAttributeInfo(entry.getKey(), "long",
+                            ((Counter) metric).description, true, false, false));
+                } else {
+                    Histogram histogram = (Histogram) metric;
+                    for (String stat : STATS) {
+                        String type = "mean".equals(stat) ? "double" : "long";
+                        String description = histogram.description
+                                + ("count".equals(stat) ? "（样本数）" : "（" + stat + "，" + histogram.unit + "）");
+                        attributes.add(new MBeanAttributeInfo(entry.getKey() + "." + stat, type,
+                                description, true, false, false));
+                    }
+                }
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "清零所有指标", null, "void",
+                    MBeanOperationInfo.ACTION);
+            return new MBeanInfo(Metrics.class.getName(), "远程桌面的性能指标",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null,
+                    new MBeanOperationInfo[] {reset}, null);
+        }
+    }
+}
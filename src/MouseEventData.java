@@ -1,11 +1,11 @@
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
- * 鼠标事件数据类
+ * 鼠标事件数据类，线上格式为 x、y、按钮、滚轮量 四个varint
  */
-public class MouseEventData implements Serializable {
-    private static final long serialVersionUID = 1L;
-    
+public class MouseEventData {
     private int x;
     private int y;
     private int button; // 1=左键, 2=中键, 3=右键
@@ -39,6 +39,27 @@ public class MouseEventData implements Serializable {
     public int getWheelRotation() {
         return wheelRotation;
     }
+    
+    /**
+     * 按协议格式写出事件字段（不含操作码）
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        Protocol.writeVarInt(out, x);
+        Protocol.writeVarInt(out, y);
+        Protocol.writeVarInt(out, button);
+        Protocol.writeVarInt(out, wheelRotation);
+    }
+    
+    /**
+     * 按协议格式读取事件字段（不含操作码）
+     */
+    public static MouseEventData readFrom(DataInput in) throws IOException {
+        int x = Protocol.readVarInt(in);
+        int y = Protocol.readVarInt(in);
+        int button = Protocol.readVarInt(in);
+        int wheelRotation = Protocol.readVarInt(in);
+        return new MouseEventData(x, y, button, wheelRotation);
+    }
 }
 
 
@@ -0,0 +1,475 @@
+import java.awt.AWTException;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 非阻塞模式的远程桌面服务端：一个事件循环线程处理所有连接，
+ * 另外每个被观看的显示器（区域）一个截屏编码线程（ScreenBroadcaster），线程数与客户端数量无关
+ */
+public class NioServer {
+    // 每个连接最多积压的待发送字节数，超过后暂停取新帧（之后合并为最新画面再发）
+    private static final int MAX_QUEUED_BYTES = 512 * 1024;
+    private static final int READ_BUFFER_SIZE = 4096;
+    // 握手包：魔数(int) + 版本(byte) + 编解码器掩码(byte)
+    private static final int HANDSHAKE_LENGTH = 6;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ScreenStreams streams;
+    private final List<Connection> connections = new ArrayList<>();
+    private volatile boolean running = false;
+
+    public NioServer(int port) throws Exception {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        streams = new ScreenStreams(FrameSource.fromSystemProperty());
+        Metrics.registerMBean();
+        System.out.println("服务器启动（NIO模式），监听端口: " + port);
+    }
+
+    /**
+     * 运行事件循环，直到调用stop()
+     */
+    public void start() {
+        running = true;
+        streams.addFrameListener(selector::wakeup);
+        streams.getCursorTracker().addListener(selector::wakeup);
+        try {
+            long timeout = 0;
+            while (running) {
+                selector.select(timeout);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException e) {
+                            System.err.println("客户端连接出错: " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+                }
+
+                // 为有空闲发送额度的连接取出最新画面，并按最近的发送时刻设定下次超时
+                timeout = 0;
+                Point cursor = streams.getCursorTracker().getPosition();
+                for (Connection connection : new ArrayList<>(connections)) {
+                    try {
+                        connection.pumpCursor(cursor);
+                        long wait = connection.pumpFrames();
+                        if (wait > 0 && (timeout == 0 || wait < timeout)) {
+                            timeout = wait;
+                        }
+                    } catch (IOException e) {
+                        System.err.println("发送屏幕数据时出错: " + e.getMessage());
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("事件循环出错: " + e.getMessage());
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void shutdown() {
+        streams.stop();
+        for (Connection connection : new ArrayList<>(connections)) {
+            connection.close();
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection;
+        try {
+            connection = new Connection(channel);
+        } catch (AWTException e) {
+            channel.close();
+            throw new IOException("无法创建输入注入器: " + e.getMessage());
+        }
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+        System.out.println("客户端连接: " + channel.getRemoteAddress());
+    }
+
+    /**
+     * 单个客户端连接的状态
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        // 按顺序发送的消息（握手回复、画面信息）和帧数据块，每个元素是一个整体
+        private final ArrayDeque<ByteBuffer[]> writeQueue = new ArrayDeque<>();
+        // 优先发送的控制消息（指针位置），插在两个元素之间
+        private final ArrayDeque<ByteBuffer> controlQueue = new ArrayDeque<>();
+        private ByteBuffer[] writing;       // 只写出了一部分的元素，写完之前不能插入控制消息
+        private long queuedBytes = 0;
+        private ScreenBroadcaster.Subscription subscription;   // 握手完成前为null
+        private int codecMask;
+        private int display;
+        private Rectangle area;
+        private Dimension viewport = new Dimension();      // 客户端窗口大小，0表示不缩放
+        private PixelFormat pixelFormat = PixelFormat.TRUE_COLOR;
+        private Dimension outputSize;
+        private Point sentCursor;
+        private final RateController rateController = new RateController();
+        // 客户端区域缓存的镜像，按帧放入发送队列的顺序更新
+        private final TileCache<Void> tileCache = new TileCache<>(Protocol.TILE_CACHE_BYTES);
+        // 鼠标坐标的原点随观看的区域变化，所以每个连接一个
+        private final InputInjector inputInjector;
+        private SessionRecorder recorder;       // 未开启会话录像时为null
+        private boolean closed = false;
+
+        Connection(SocketChannel channel) throws AWTException {
+            this.channel = channel;
+            this.inputInjector = new InputInjector(streams.getSource());
+        }
+
+        /**
+         * 读取数据并处理其中所有完整的握手包或命令
+         */
+        void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                throw new EOFException("连接已关闭");
+            }
+            readBuffer.flip();
+            DataInputStream in = new DataInputStream(new BufferInput(readBuffer));
+            while (!closed && readBuffer.hasRemaining()) {
+                int start = readBuffer.position();
+                try {
+                    if (subscription == null) {
+                        if (readBuffer.remaining() < HANDSHAKE_LENGTH) break;
+                        handshake(in);
+                    } else {
+                        int command = in.readUnsignedByte();
+                        if (command == Protocol.CMD_FRAME_ACK) {
+                            rateController.onAck(Protocol.readVarInt(in), System.currentTimeMillis(),
+                                    subscription.getEncodeMillis());
+                        } else if (command == Protocol.CMD_SELECT_STREAM) {
+                            int display = Protocol.readVarInt(in);
+                            Rectangle region = new Rectangle(Protocol.readVarInt(in), Protocol.readVarInt(in),
+                                    Protocol.readVarInt(in), Protocol.readVarInt(in));
+                            selectStream(display, region);
+                        } else if (command == Protocol.CMD_VIEWPORT) {
+                            selectViewport(new Dimension(Protocol.readVarInt(in), Protocol.readVarInt(in)));
+                        } else if (command == Protocol.CMD_CACHE_RESET) {
+                            resetCache();
+                        } else if (command == Protocol.CMD_PIXEL_FORMAT) {
+                            selectPixelFormat(PixelFormat.fromId(Protocol.readVarInt(in)));
+                        } else {
+                            inputInjector.execute(command, in);
+                            streams.onActivity();
+                        }
+                    }
+                } catch (EOFException e) {
+                    // 命令还没有收全，等待更多数据
+                    readBuffer.position(start);
+                    break;
+                }
+            }
+            readBuffer.compact();
+        }
+
+        private void handshake(DataInputStream in) throws IOException {
+            if (in.readInt() != Protocol.MAGIC) {
+                throw new IOException("握手失败：不是远程桌面客户端");
+            }
+            int version = Protocol.negotiateVersion(in.readUnsignedByte());
+            codecMask = FrameCodecs.negotiate(in.readUnsignedByte());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(version);
+            if (version == 0) {
+                enqueue(ByteBuffer.wrap(bytes.toByteArray()));
+                throw new IOException("握手失败：客户端协议版本过低");
+            }
+            out.writeByte(codecMask);
+            List<Rectangle> displays = streams.getDisplays();
+            out.writeByte(displays.size());
+            for (Rectangle bounds : displays) {
+                out.writeInt(bounds.x);
+                out.writeInt(bounds.y);
+                out.writeInt(bounds.width);
+                out.writeInt(bounds.height);
+            }
+            enqueue(ByteBuffer.wrap(bytes.toByteArray()));
+            recorder = SessionRecorder.fromSystemProperty(streams, String.valueOf(channel.getRemoteAddress()));
+            inputInjector.setRecorder(recorder);
+            selectStream(0, new Rectangle());
+        }
+
+        /**
+         * 改为观看另一个显示器或区域
+         */
+        private void selectStream(int display, Rectangle region) throws IOException {
+            this.display = display >= 0 && display < streams.getDisplays().size() ? display : 0;
+            this.area = streams.resolve(display, region);
+            inputInjector.setOrigin(area.getLocation());
+            subscribe();
+        }
+
+        /**
+         * 客户端窗口大小变化，编码尺寸随之变化时才换订阅
+         */
+        private void selectViewport(Dimension requested) throws IOException {
+            viewport = requested;
+            if (!streams.outputSize(area, viewport.width, viewport.height).equals(outputSize)) {
+                subscribe();
+            }
+        }
+
+        /**
+         * 客户端改变了颜色深度，换订阅对应深度的画面
+         */
+        private void selectPixelFormat(PixelFormat requested) throws IOException {
+            if (requested != pixelFormat) {
+                pixelFormat = requested;
+                subscribe();
+            }
+        }
+
+        /**
+         * 订阅当前区域、窗口大小和像素格式对应的画面：已排队的旧画面照常发出，随后是 MSG_STREAM_INFO 和新画面
+         */
+        private void subscribe() throws IOException {
+            outputSize = streams.outputSize(area, viewport.width, viewport.height);
+            if (subscription != null) {
+                subscription.close();
+            }
+            try {
+                subscription = streams.subscribe(area, outputSize, pixelFormat, codecMask);
+            } catch (AWTException e) {
+                throw new IOException("无法捕获屏幕: " + e.getMessage());
+            }
+            if (recorder != null) {
+                recorder.follow(display, area, outputSize, pixelFormat);
+            }
+            rateController.reset();
+            ByteBuffer info = ByteBuffer.allocate(32);
+            info.putInt(Protocol.MSG_STREAM_INFO).putInt(display)
+                    .putInt(area.x).putInt(area.y).putInt(area.width).putInt(area.height)
+                    .putInt(outputSize.width).putInt(outputSize.height).flip();
+            enqueue(info);
+        }
+
+        /**
+         * 客户端的区域缓存与镜像不一致：两边都清空，MSG_CACHE_RESET 排在已入队的帧之后，随后重新发送完整画面
+         */
+        private void resetCache() throws IOException {
+            tileCache.clear();
+            ByteBuffer message = ByteBuffer.allocate(4);
+            message.putInt(Protocol.MSG_CACHE_RESET).flip();
+            enqueue(message);
+            subscription.resync();
+        }
+
+        /**
+         * 指针位置（相对于当前画面区域）变化时放入 MSG_CURSOR，只有12字节，不受积压限制
+         * @param cursor 虚拟桌面中的指针位置，可能为null
+         */
+        void pumpCursor(Point cursor) throws IOException {
+            if (closed || subscription == null || cursor == null) return;
+            Point position = new Point(cursor.x - area.x, cursor.y - area.y);
+            if (position.equals(sentCursor)) return;
+            sentCursor = position;
+            ByteBuffer message = ByteBuffer.allocate(12);
+            message.putInt(Protocol.MSG_CURSOR).putInt(position.x).putInt(position.y).flip();
+            controlQueue.add(message);
+            queuedBytes += message.remaining();
+            flush();
+        }
+
+        /**
+         * 积压未超限且速率控制允许时取出最新画面放入发送队列；期间产生的帧会在下次合并
+         * @return 距离下次可以发送还需等待的毫秒数，0表示无需定时唤醒
+         */
+        long pumpFrames() throws IOException {
+            if (closed || subscription == null || queuedBytes >= MAX_QUEUED_BYTES) return 0;
+            long now = System.currentTimeMillis();
+            long wait = rateController.millisUntilNextFrame(now);
+            if (wait == Long.MAX_VALUE) return 0;     // 等待客户端确认，收到确认时会被唤醒
+            if (wait > 0) return wait;
+
+            subscription.setPreferredQuality(rateController.getQuality());
+            EncodedFrame frame;
+            try {
+                frame = subscription.next(0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+            if (frame == null) return 0;
+            frame = frame.withCachedTiles(tileCache);
+
+            // 切成数据块排队，图像数据直接引用共享帧，不再复制
+            List<ByteBuffer[]> chunks = frame.toChunks(Protocol.CHUNK_SIZE);
+            int size = 0;
+            for (ByteBuffer[] chunk : chunks) {
+                size += remaining(chunk);
+            }
+            rateController.onFrameSent((int) frame.getSequence(), size, now);
+            writeQueue.addAll(chunks);
+            queuedBytes += size;
+            flush();
+            return 0;
+        }
+
+        private void enqueue(ByteBuffer buffer) throws IOException {
+            writeQueue.add(new ByteBuffer[] {buffer});
+            queuedBytes += buffer.remaining();
+            flush();
+        }
+
+        /**
+         * 尽量写出发送队列，写不完时关注OP_WRITE，等套接字可写再继续。
+         * 写出顺序：未写完的元素、所有控制消息、其余元素，控制消息最多等一个数据块
+         */
+        void flush() throws IOException {
+            if (hasPending()) {
+                List<ByteBuffer> buffers = new ArrayList<>();
+                if (writing != null) {
+                    Collections.addAll(buffers, writing);
+                }
+                buffers.addAll(controlQueue);
+                for (ByteBuffer[] element : writeQueue) {
+                    Collections.addAll(buffers, element);
+                }
+                // 聚集写：块头和图像数据一次系统调用写出
+                long written = channel.write(buffers.toArray(new ByteBuffer[0]));
+                queuedBytes -= written;
+                Metrics.SEND_BYTES.add(written);
+                if (writing != null && remaining(writing) == 0) {
+                    writing = null;
+                }
+                if (writing == null) {
+                    while (!controlQueue.isEmpty() && !controlQueue.peek().hasRemaining()) {
+                        controlQueue.poll();
+                    }
+                }
+                if (writing == null && controlQueue.isEmpty()) {
+                    while (!writeQueue.isEmpty() && remaining(writeQueue.peek()) == 0) {
+                        writeQueue.poll();
+                    }
+                    if (!writeQueue.isEmpty() && writeQueue.peek()[0].position() > 0) {
+                        writing = writeQueue.poll();
+                    }
+                }
+                if (hasPending()) {
+                    Metrics.SEND_STALLS.increment();
+                }
+            }
+            if (!hasPending()) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private boolean hasPending() {
+            return writing != null || !controlQueue.isEmpty() || !writeQueue.isEmpty();
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            connections.remove(this);
+            if (subscription != null) {
+                subscription.close();
+            }
+            if (recorder != null) {
+                recorder.close();
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static int remaining(ByteBuffer[] buffers) {
+        int remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    /**
+     * 以输入流的形式读取ByteBuffer，数据不足时返回-1（DataInputStream随即抛出EOFException）
+     */
+    private static class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * 画面的像素格式（颜色深度），每个会话由客户端通过 CMD_PIXEL_FORMAT 选择。
+ * 服务端在比较和编码之前把画面降到该深度（见 ColorReducer），客户端照常解码为24位画面，不需要另外转换。
+ * 带宽受限（VPN、移动网络）时用较低的深度换取响应速度，客户端启动时通过系统属性选择：
+ * -Dremote.depth=24（默认）|16|8|gray
+ */
+public enum PixelFormat {
+    TRUE_COLOR(0, "24位真彩色", Protocol.IMAGE_QUALITY),
+    RGB565(1, "16位（RGB565）", 0.7f),
+    PALETTE(2, "8位调色板", 0.5f),
+    GRAY(3, "8位灰度", 0.5f);
+
+    public static final String PROPERTY = "remote.depth";
+
+    private final int id;
+    private final String label;
+    private final float maxQuality;
+
+    PixelFormat(int id, String label, float maxQuality) {
+        this.id = id;
+        this.label = label;
+        this.maxQuality = maxQuality;
+    }
+
+    /**
+     * 协议中的编号
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * 菜单中显示的名称
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * 该格式下JPEG质量的上限。照片、视频类区域的大小几乎只取决于JPEG质量，与颜色深度无关，
+     * 选择较低的深度就是用画质换带宽，这些区域的JPEG质量也相应降低
+     */
+    public float getMaxQuality() {
+        return maxQuality;
+    }
+
+    /**
+     * 按协议中的编号取格式，未知的编号（更新的客户端）按真彩色处理
+     */
+    public static PixelFormat fromId(int id) {
+        for (PixelFormat format : values()) {
+            if (format.id == id) {
+                return format;
+            }
+        }
+        return TRUE_COLOR;
+    }
+
+    public static PixelFormat fromSystemProperty() {
+        String value = System.getProperty(PROPERTY, "24").trim().toLowerCase();
+        switch (value) {
+            case "24":
+                return TRUE_COLOR;
+            case "16":
+                return RGB565;
+            case "8":
+                return PALETTE;
+            case "gray":
+                return GRAY;
+            default:
+                throw new IllegalArgumentException("颜色深度应为 24、16、8 或 gray: " + value);
+        }
+    }
+}
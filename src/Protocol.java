@@ -1,14 +1,51 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * 通信协议常量定义
  */
 public class Protocol {
-    // 命令类型
+    // 握手：客户端先发送魔数(int) + 支持的最高版本(byte) + 支持的编解码器掩码(byte)，
+    // 服务端回复协商后的版本(byte)，版本为0表示拒绝，随后发送双方都支持的编解码器掩码(byte)、
+    // 显示器数(byte)和每个显示器在虚拟桌面中的 x, y, 宽, 高(int)，默认观看第一个（主显示器）
+    public static final int MAGIC = 0x52444350; // "RDCP"
+    public static final int VERSION = 11;
+    public static final int MIN_VERSION = 11;
+    
+    // 握手超时（毫秒）
+    public static final int HANDSHAKE_TIMEOUT = 5000;
+    
+    // 命令类型，按单字节操作码发送，其后为该命令固定的varint字段
     public static final int CMD_MOUSE_MOVE = 1;
     public static final int CMD_MOUSE_PRESS = 2;
     public static final int CMD_MOUSE_RELEASE = 3;
     public static final int CMD_MOUSE_WHEEL = 4;
     public static final int CMD_KEY_PRESS = 5;
     public static final int CMD_KEY_RELEASE = 6;
+    public static final int CMD_FRAME_ACK = 7;      // 帧确认：客户端已显示的帧序号
+    public static final int CMD_SELECT_STREAM = 8;  // 切换画面：显示器序号, 区域x, y, 宽, 高（相对于该显示器，宽高为0表示整个显示器）
+    public static final int CMD_VIEWPORT = 9;       // 客户端窗口大小：宽, 高（为0表示不缩放），服务端把画面缩小到该大小以内再编码
+    public static final int CMD_CACHE_RESET = 10;   // 区域缓存不同步（引用了不在缓存中的区域）：请服务端清空镜像，服务端回复 MSG_CACHE_RESET
+    public static final int CMD_PIXEL_FORMAT = 11;  // 像素格式（颜色深度）：格式编号（见 PixelFormat），服务端之后发送降到该深度的画面
+    
+    // 服务端消息类型。帧消息（101~104）不直接发送，而是连成字节流后切成 MSG_FRAME_CHUNK 块，
+    // 块之间可以插入控制消息（MSG_CURSOR 等），大帧不会挡住后面的小消息
+    public static final int MSG_FRAME_FULL = 101;   // 关键帧：宽, 高；随后的 MSG_FRAME_TILES 覆盖整个画面（按条带分别编码）
+    public static final int MSG_FRAME_TILES = 102;  // 增量帧：区域数 + 每个区域(x, y, 宽, 高, 编解码器(byte), 内容哈希(long，0表示不缓存), 长度, 数据)
+    public static final int MSG_FRAME_END = 103;    // 一帧结束：帧序号，客户端显示后回复 CMD_FRAME_ACK
+    public static final int MSG_FRAME_COPY = 104;   // 复制区域：操作数 + 每个操作(源x, 源y, 宽, 高, 目标x, 目标y)，在随后的区域之前执行
+    public static final int MSG_STREAM_INFO = 105;  // 画面区域：显示器序号, 虚拟桌面中的 x, y, 宽, 高, 缩放后的宽, 高；之后的帧都属于该区域，鼠标坐标是该区域中未缩放的坐标
+    public static final int MSG_CURSOR = 106;       // 鼠标指针位置：x, y（相对于当前画面区域左上角、未缩放），位置变化时单独发送，不等待画面
+    public static final int MSG_FRAME_CHUNK = 107;  // 帧数据块：长度 + 帧消息字节流中接下来的这么多字节
+    public static final int MSG_CACHE_RESET = 108;  // 清空区域缓存：在两帧之间按顺序发送，服务端在此之后发出的帧按空缓存计算
+    
+    // 编解码器编号，握手时以 1 << 编号 组成掩码；JPEG 是双方必须支持的
+    public static final int CODEC_JPEG = 0;         // 有损，适合照片、视频
+    public static final int CODEC_PNG = 1;          // 无损
+    public static final int CODEC_DEFLATE = 2;      // 无损：调色板、24位或16位原始像素 + Deflate，适合文字界面
+    // 不是编解码器：区域内容就是客户端缓存中该哈希对应的区域，长度为0
+    public static final int CODEC_CACHED = 255;
     
     // 默认端口
     public static final int DEFAULT_PORT = 8888;
@@ -16,12 +53,75 @@ public class Protocol {
     // 图像质量（0.0-1.0）
     public static final float IMAGE_QUALITY = 0.99f;
     
+    // 自适应调整时质量的下限
+    public static final float MIN_IMAGE_QUALITY = 0.4f;
+    
     // 帧率控制（毫秒）
     public static final int FRAME_INTERVAL = 30; // 30 FPS
+    
+    // 画面长时间没有变化时截屏间隔逐步放慢到该值（毫秒），有输入或指针移动时立即恢复 FRAME_INTERVAL
+    public static final int IDLE_FRAME_INTERVAL = 250;
+    
+    // 自适应调整时帧间隔的上限（毫秒）
+    public static final int MAX_FRAME_INTERVAL = 500;
+    
+    // 画面延迟预算（毫秒）：从发送到客户端确认的时间加上编码时间
+    public static final int LATENCY_BUDGET = 150;
+    
+    // 鼠标移动合并发送的时间片（毫秒）
+    public static final int INPUT_TICK = 10;
+    
+    // 服务端读取鼠标指针位置的间隔（毫秒）
+    public static final int CURSOR_INTERVAL = 15;
+    
+    // 帧数据块的最大字节数：越小控制消息等待越短，越大系统调用越少
+    public static final int CHUNK_SIZE = 16 * 1024;
+    
+    // 单个区域编码数据的最大字节数（区域不超过 2 * TILE_SIZE 行），读到更大的长度视为数据损坏
+    public static final int MAX_TILE_BYTES = 32 * 1024 * 1024;
+    
+    // 客户端区域缓存的容量（解码后的像素字节数），服务端为每个客户端按同样的容量维护镜像
+    public static final long TILE_CACHE_BYTES = 64L * 1024 * 1024;
+    
+    // 差异检测的瓦片边长（像素）
+    public static final int TILE_SIZE = 64;
+    
+    // 变化瓦片占比超过该值时直接发送完整帧
+    public static final float FULL_FRAME_RATIO = 0.5f;
+    
+    /**
+     * 根据客户端支持的最高版本协商协议版本
+     * @return 双方都支持的最高版本，无法兼容时返回0
+     */
+    public static int negotiateVersion(int clientVersion) {
+        int version = Math.min(clientVersion, VERSION);
+        return version >= MIN_VERSION ? version : 0;
+    }
+    
+    /**
+     * 写入一个变长整数（zigzag编码，绝对值小的数占用字节少）
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+    
+    /**
+     * 读取一个变长整数
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
 }
-
-
-
-
-
-
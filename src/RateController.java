@@ -0,0 +1,114 @@
+import java.util.ArrayDeque;
+
+/**
+ * 单个客户端的发送速率控制器：根据客户端确认帧的延迟、每帧字节数和编码耗时，
+ * 调整发给该客户端的帧间隔和建议的JPEG质量，使画面延迟保持在预算之内
+ */
+public class RateController {
+    // 最多允许多少帧已发送但未确认，超过后等待确认，避免帧堆积在套接字缓冲区里
+    private static final int MAX_IN_FLIGHT = 2;
+    private static final float QUALITY_STEP_DOWN = 0.1f;
+    private static final float QUALITY_STEP_UP = 0.05f;
+    // 延迟平滑系数
+    private static final double SMOOTHING = 0.25;
+
+    private final ArrayDeque<long[]> inFlight = new ArrayDeque<>();    // {序号, 发送时间, 字节数}
+    private long frameInterval = Protocol.FRAME_INTERVAL;
+    private float quality = Protocol.IMAGE_QUALITY;
+    private long lastSentAt = 0;
+    private double latencyMillis = 0;
+    private double bytesPerFrame = 0;
+
+    /**
+     * 距离可以发送下一帧还需等待的毫秒数
+     * @return 0表示可以立即发送；在途帧已满时返回Long.MAX_VALUE（需等待确认）
+     */
+    public synchronized long millisUntilNextFrame(long now) {
+        if (inFlight.size() >= MAX_IN_FLIGHT) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, lastSentAt + frameInterval - now);
+    }
+
+    /**
+     * 阻塞直到可以发送下一帧或超时
+     */
+    public synchronized void awaitSendSlot(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long now;
+        while ((now = System.currentTimeMillis()) < deadline) {
+            long wait = millisUntilNextFrame(now);
+            if (wait == 0) {
+                return;
+            }
+            wait(Math.min(wait, deadline - now));
+        }
+    }
+
+    /**
+     * 记录已发送的一帧
+     */
+    public synchronized void onFrameSent(long sequence, int bytes, long now) {
+        inFlight.add(new long[] {sequence, now, bytes});
+        lastSentAt = now;
+    }
+
+    /**
+     * 处理客户端确认，更新延迟估计并调整帧间隔和质量
+     * @param sequence 客户端已显示的最后一帧的序号
+     * @param encodeMillis 服务端当前的平均编码耗时
+     */
+    public synchronized void onAck(long sequence, long now, double encodeMillis) {
+        long[] acked = null;
+        while (!inFlight.isEmpty() && inFlight.peek()[0] <= sequence) {
+            acked = inFlight.poll();
+        }
+        notifyAll();
+        if (acked == null) {
+            return;
+        }
+
+        Metrics.FRAME_LATENCY.record((now - acked[1]) * 1000);
+        double sample = (now - acked[1]) + encodeMillis;
+        latencyMillis = latencyMillis == 0 ? sample : latencyMillis + SMOOTHING * (sample - latencyMillis);
+        bytesPerFrame = bytesPerFrame == 0 ? acked[2] : bytesPerFrame + SMOOTHING * (acked[2] - bytesPerFrame);
+
+        if (latencyMillis > Protocol.LATENCY_BUDGET) {
+            // 超出预算：降低质量、拉长帧间隔
+            quality = Math.max(Protocol.MIN_IMAGE_QUALITY, quality - QUALITY_STEP_DOWN);
+            frameInterval = Math.min(Protocol.MAX_FRAME_INTERVAL, frameInterval * 5 / 4 + 1);
+        } else if (latencyMillis < Protocol.LATENCY_BUDGET / 2) {
+            // 余量充足：先恢复帧率，再恢复质量
+            if (frameInterval > Protocol.FRAME_INTERVAL) {
+                frameInterval = Math.max(Protocol.FRAME_INTERVAL, frameInterval * 9 / 10);
+            } else {
+                quality = Math.min(Protocol.IMAGE_QUALITY, quality + QUALITY_STEP_UP);
+            }
+        }
+    }
+
+    /**
+     * 切换画面后调用：新画面的帧序号重新开始，旧画面的在途帧不会再被确认
+     */
+    public synchronized void reset() {
+        inFlight.clear();
+        lastSentAt = 0;
+        notifyAll();
+    }
+
+    public synchronized long getFrameInterval() {
+        return frameInterval;
+    }
+
+    public synchronized float getQuality() {
+        return quality;
+    }
+
+    public synchronized double getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public synchronized double getBytesPerFrame() {
+        return bytesPerFrame;
+    }
+}
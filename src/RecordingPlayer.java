@@ -0,0 +1,250 @@
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.event.KeyEvent;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+/**
+ * 会话录像的播放器：按录像中的时刻回放画面、鼠标指针和客户端输入。
+ * 拖动进度条时从目标时刻之前最近的关键帧开始，不等待地把记录应用到目标时刻（解码线程只在最后重绘一次），
+ * 再按原速继续播放，所以定位到任何时刻最多只需快进一个关键帧间隔
+ */
+public class RecordingPlayer implements Runnable {
+    private static final int POSITION_REFRESH_MILLIS = 200;
+
+    private final RecordingReader reader;
+    private final ScreenDisplay screenDisplay;
+    private final FrameDecoder frameDecoder;
+    private final Timer positionTimer;
+    private volatile int position = 0;      // 当前播放到的时刻（毫秒）
+    // 以下由本对象的锁保护，播放线程等待其变化
+    private boolean paused = false;
+    private boolean resumed = false;        // 刚从暂停恢复，需要重新对时
+    private int seekTarget = 0;             // 待定位的时刻，-1表示没有
+
+    public RecordingPlayer(RecordingReader reader) throws IOException {
+        this.reader = reader;
+        // 窗口大小按第一个关键帧的画面
+        int width = 1280, height = 720;
+        RecordingReader.Record first = reader.read(reader.keyFrameBefore(0));
+        if (first != null) {
+            ByteBuffer info = ByteBuffer.wrap(first.getPayload());
+            width = info.getInt(12);
+            height = info.getInt(16);
+        }
+        screenDisplay = new ScreenDisplay(width, height);
+        screenDisplay.setupPlayerControls(reader.getDuration(), this::seek, this::togglePause);
+        frameDecoder = new FrameDecoder(screenDisplay.getScreenPanel(), sequence -> { });
+        positionTimer = new Timer(POSITION_REFRESH_MILLIS,
+                e -> screenDisplay.setPlaybackPosition(position, isPaused()));
+    }
+
+    /**
+     * 显示窗口并开始播放
+     */
+    public void start() {
+        screenDisplay.setVisible(true);
+        positionTimer.start();
+        Thread decoder = new Thread(frameDecoder, "player-decoder");
+        decoder.setDaemon(true);
+        decoder.start();
+        Thread player = new Thread(this, "player");
+        player.setDaemon(true);
+        player.start();
+    }
+
+    /**
+     * 跳到指定时刻（毫秒），暂停时也会显示该时刻的画面
+     */
+    public synchronized void seek(int time) {
+        seekTarget = Math.max(0, Math.min(time, reader.getDuration()));
+        notifyAll();
+    }
+
+    /**
+     * 暂停或继续；已播放到结尾时从头开始
+     */
+    public synchronized void togglePause() {
+        paused = !paused;
+        if (!paused) {
+            resumed = true;
+            if (position >= reader.getDuration()) {
+                seekTarget = 0;
+            }
+        }
+        notifyAll();
+    }
+
+    private synchronized boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public void run() {
+        RecordingReader.Record next = null;    // 下一条要播放的记录，未到时刻时保留
+        long offset = -1;
+        long clockBase = 0;                     // 播放时刻 clockTime 对应的系统时间
+        int clockTime = 0;
+        try {
+            while (true) {
+                int target;
+                boolean rebase;
+                synchronized (this) {
+                    while (paused && seekTarget < 0) {
+                        wait();
+                    }
+                    target = seekTarget;
+                    seekTarget = -1;
+                    rebase = resumed;
+                    resumed = false;
+                }
+                if (target >= 0) {
+                    offset = seekTo(target);
+                    next = null;
+                    rebase = true;
+                }
+                if (rebase) {
+                    clockBase = System.currentTimeMillis();
+                    clockTime = position;
+                }
+                if (next == null) {
+                    next = reader.read(offset);
+                    if (next == null) {
+                        synchronized (this) {
+                            paused = true;      // 播放到结尾
+                        }
+                        position = reader.getDuration();
+                        continue;
+                    }
+                }
+                long delay = clockBase + (next.getTime() - clockTime) - System.currentTimeMillis();
+                if (delay > 0) {
+                    synchronized (this) {
+                        if (!paused && seekTarget < 0) {
+                            wait(delay);
+                        }
+                    }
+                    continue;
+                }
+                play(next);
+                position = next.getTime();
+                offset = next.getNextOffset();
+                next = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("读取录像时出错: " + e.getMessage());
+            SwingUtilities.invokeLater(() -> screenDisplay.setPlaybackStatus("读取录像时出错: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 从目标时刻之前最近的关键帧开始，依次应用到目标时刻
+     * @return 目标时刻之后第一条记录的偏移
+     */
+    private long seekTo(int target) throws IOException {
+        long offset = reader.keyFrameBefore(target);
+        RecordingReader.Record record;
+        while ((record = reader.read(offset)) != null && record.getTime() <= target) {
+            play(record);
+            offset = record.getNextOffset();
+        }
+        position = target;
+        return offset;
+    }
+
+    /**
+     * 应用一条记录：帧交给解码线程，指针位置和输入直接更新界面
+     */
+    private void play(RecordingReader.Record record) throws IOException {
+        byte[] payload = record.getPayload();
+        switch (record.getType()) {
+            case RecordingWriter.REC_KEYFRAME:
+                ByteBuffer info = ByteBuffer.wrap(payload);
+                int display = info.getInt();
+                info.getInt();
+                info.getInt();
+                int width = info.getInt(), height = info.getInt();
+                int scaledWidth = info.getInt(), scaledHeight = info.getInt();
+                SwingUtilities.invokeLater(() ->
+                        screenDisplay.setStream(display, width, height, scaledWidth, scaledHeight));
+                submitFrame(payload, RecordingWriter.STREAM_INFO_LENGTH);
+                break;
+
+            case RecordingWriter.REC_FRAME:
+                submitFrame(payload, 0);
+                break;
+
+            case RecordingWriter.REC_CURSOR:
+                ByteBuffer cursor = ByteBuffer.wrap(payload);
+                screenDisplay.getScreenPanel().setRemoteCursor(cursor.getInt(), cursor.getInt());
+                break;
+
+            case RecordingWriter.REC_INPUT:
+                String text = describeInput(payload);
+                SwingUtilities.invokeLater(() -> screenDisplay.setPlaybackStatus(text));
+                break;
+
+            default:
+                break;      // 以后版本增加的记录类型，跳过
+        }
+    }
+
+    private void submitFrame(byte[] payload, int offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, offset, payload.length - offset));
+        frameDecoder.submit(FrameDecoder.FrameUpdate.readFrom(in, FrameCodecs.SUPPORTED));
+    }
+
+    /**
+     * 把一条输入记录转成可读的文字
+     */
+    static String describeInput(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int command = in.readUnsignedByte();
+        switch (command) {
+            case Protocol.CMD_MOUSE_MOVE:
+                MouseEventData move = MouseEventData.readFrom(in);
+                return "鼠标移动 (" + move.getX() + ", " + move.getY() + ")";
+            case Protocol.CMD_MOUSE_PRESS:
+                MouseEventData press = MouseEventData.readFrom(in);
+                return "鼠标按下 按钮" + press.getButton() + " (" + press.getX() + ", " + press.getY() + ")";
+            case Protocol.CMD_MOUSE_RELEASE:
+                MouseEventData release = MouseEventData.readFrom(in);
+                return "鼠标松开 按钮" + release.getButton() + " (" + release.getX() + ", " + release.getY() + ")";
+            case Protocol.CMD_MOUSE_WHEEL:
+                return "鼠标滚轮 " + MouseEventData.readFrom(in).getWheelRotation();
+            case Protocol.CMD_KEY_PRESS:
+                return "按下 " + KeyEvent.getKeyText(KeyEventData.readFrom(in).getKeyCode());
+            case Protocol.CMD_KEY_RELEASE:
+                return "松开 " + KeyEvent.getKeyText(KeyEventData.readFrom(in).getKeyCode());
+            default:
+                return "未知命令 " + command;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("用法: java RecordingPlayer 录像文件.rdr");
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            try {
+                RecordingReader reader = new RecordingReader(Paths.get(args[0]));
+                System.out.println("录像时长: " + reader.getDuration() / 1000 + " 秒");
+                new RecordingPlayer(reader).start();
+            } catch (Exception e) {
+                System.err.println("打开录像失败: " + e.getMessage());
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(null,
+                        "打开录像失败: " + e.getMessage(),
+                        "错误",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+}
@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 读取 RecordingWriter 写出的录像：打开时载入关键帧索引，再从最后一个索引项扫描记录头，
+ * 补上索引中没有的关键帧（写入时被中断）并得到录像时长。记录按文件偏移随机读取（FileChannel 定位读），
+ * 定位到任意时刻只需从它之前最近的关键帧开始读。末尾不完整的记录（录像仍在写或被中断）视为文件结束
+ */
+public class RecordingReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final long startMillis;
+    private final TreeMap<Integer, Long> keyFrames = new TreeMap<>();  // 时刻 -> 记录偏移
+    private long end;               // 最后一条完整记录之后的偏移
+    private int duration;           // 最后一条记录的时刻（毫秒）
+
+    public RecordingReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = readFully(0, RecordingWriter.HEADER_LENGTH);
+            if (header == null || header.getInt() != RecordingWriter.MAGIC) {
+                throw new IOException("不是录像文件: " + path);
+            }
+            int version = header.get() & 0xFF;
+            if (version < RecordingWriter.MIN_VERSION || version > RecordingWriter.VERSION) {
+                throw new IOException("不支持的录像版本: " + version);
+            }
+            startMillis = header.getLong();
+            loadIndex(RecordingWriter.indexPath(path));
+            scan(keyFrames.isEmpty() ? RecordingWriter.HEADER_LENGTH : keyFrames.lastEntry().getValue());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 载入索引文件，忽略末尾不完整的索引项和指向文件之外的偏移
+     */
+    private void loadIndex(Path indexPath) throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(indexPath);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        long size = channel.size();
+        ByteBuffer index = ByteBuffer.wrap(data);
+        while (index.remaining() >= RecordingWriter.INDEX_ENTRY_LENGTH) {
+            int time = index.getInt();
+            long offset = index.getLong();
+            if (offset >= RecordingWriter.HEADER_LENGTH && offset < size) {
+                keyFrames.put(time, offset);
+            }
+        }
+    }
+
+    /**
+     * 从指定偏移开始只读记录头，补全关键帧索引、时长和有效数据的结尾
+     */
+    private void scan(long offset) throws IOException {
+        long size = channel.size();
+        end = offset;
+        ByteBuffer header;
+        while ((header = readFully(offset, RecordingWriter.RECORD_HEADER_LENGTH)) != null) {
+            int type = header.get() & 0xFF;
+            int time = header.getInt();
+            int length = header.getInt();
+            long next = offset + RecordingWriter.RECORD_HEADER_LENGTH + length;
+            if (length < 0 || next > size) {
+                break;
+            }
+            if (type == RecordingWriter.REC_KEYFRAME) {
+                keyFrames.put(time, offset);
+            }
+            duration = Math.max(duration, time);
+            offset = next;
+            end = offset;
+        }
+    }
+
+    /**
+     * 录像开始的时刻（System.currentTimeMillis）
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * 录像时长（毫秒）
+     */
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * 不晚于指定时刻的最后一个关键帧；指定时刻之前没有关键帧时取第一个
+     * @param time 相对开始时间的毫秒数
+     * @return 关键帧记录的偏移，录像中没有关键帧时返回-1
+     */
+    public long keyFrameBefore(int time) {
+        Map.Entry<Integer, Long> entry = keyFrames.floorEntry(time);
+        if (entry == null) {
+            entry = keyFrames.firstEntry();
+        }
+        return entry == null ? -1 : entry.getValue();
+    }
+
+    /**
+     * 读取一条记录
+     * @param offset 记录的偏移（keyFrameBefore 或上一条记录的 getNextOffset）
+     * @return 已到文件结尾时返回null
+     */
+    public Record read(long offset) throws IOException {
+        if (offset < RecordingWriter.HEADER_LENGTH || offset >= end) {
+            return null;
+        }
+        ByteBuffer header = readFully(offset, RecordingWriter.RECORD_HEADER_LENGTH);
+        if (header == null) {
+            return null;
+        }
+        int type = header.get() & 0xFF;
+        int time = header.getInt();
+        int length = header.getInt();
+        long payloadOffset = offset + RecordingWriter.RECORD_HEADER_LENGTH;
+        ByteBuffer payload = readFully(payloadOffset, length);
+        if (payload == null) {
+            return null;
+        }
+        return new Record(type, time, payload.array(), payloadOffset + length);
+    }
+
+    /**
+     * 从指定偏移读取 length 字节
+     * @return 文件不够长时返回null
+     */
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 一条记录
+     */
+    public static class Record {
+        private final int type;
+        private final int time;
+        private final byte[] payload;
+        private final long nextOffset;
+
+        Record(int type, int time, byte[] payload, long nextOffset) {
+            this.type = type;
+            this.time = time;
+            this.payload = payload;
+            this.nextOffset = nextOffset;
+        }
+
+        /**
+         * 记录类型，见 RecordingWriter.REC_*
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * 相对录像开始的毫秒数
+         */
+        public int getTime() {
+            return time;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        /**
+         * 下一条记录的偏移
+         */
+        public long getNextOffset() {
+            return nextOffset;
+        }
+    }
+}
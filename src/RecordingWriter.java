@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 会话录像文件的异步写入器。调用方只把记录放进队列（不做IO），写入线程每次取走队列中的全部记录，
+ * 用一次聚集写（FileChannel.write(ByteBuffer[])）追加到文件，图像数据直接引用共享帧而不复制；
+ * 磁盘跟不上、积压超过 MAX_QUEUED_BYTES 时丢弃新记录并告知调用方，不会拖慢画面发送。
+ * <p>
+ * 文件格式：文件头 魔数(int) + 版本(byte) + 开始时间(long，毫秒)，之后是记录：
+ * 类型(byte) + 时刻(int，相对开始时间的毫秒数) + 长度(int) + 内容。
+ * 同名加 INDEX_SUFFIX 的索引文件中是每个关键帧记录的 时刻(int) + 文件偏移(long)，用于快速定位；
+ * 索引缺失或不完整时 RecordingReader 扫描记录头补齐
+ */
+public class RecordingWriter implements Runnable, AutoCloseable {
+    public static final int MAGIC = 0x52445246;     // "RDRF"
+    public static final int VERSION = 3;             // 2: 区域记录中增加了内容哈希；3: 无损区域可能为16位像素
+    public static final int MIN_VERSION = 2;         // 版本2的文件只是没有16位像素，仍然可以读取
+    public static final int HEADER_LENGTH = 13;
+    public static final int RECORD_HEADER_LENGTH = 9;
+    public static final int INDEX_ENTRY_LENGTH = 12;
+    public static final String INDEX_SUFFIX = ".idx";
+
+    // 关键帧：画面信息（显示器序号, 虚拟桌面中的 x, y, 宽, 高, 缩放后的宽, 高）+ 协议格式的关键帧（MSG_FRAME_FULL ... MSG_FRAME_END）
+    public static final int REC_KEYFRAME = 1;
+    public static final int STREAM_INFO_LENGTH = 28;
+    // 增量帧：协议格式的一帧，画面信息同前一个关键帧
+    public static final int REC_FRAME = 2;
+    // 鼠标指针位置：x, y（相对于画面区域、未缩放）
+    public static final int REC_CURSOR = 3;
+    // 客户端输入：命令操作码(byte) + 协议格式的字段（MouseEventData / KeyEventData）
+    public static final int REC_INPUT = 4;
+
+    // 队列中（含正在写出的一批）最多积压的字节数
+    private static final long MAX_QUEUED_BYTES = 32L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final FileChannel indexChannel;
+    private final long startMillis;
+    private final ArrayDeque<Record> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private boolean closed = false;
+    private boolean released = false;           // 文件已关闭
+    private long position = HEADER_LENGTH;      // 下一条记录的文件偏移，只由写入线程使用
+    private final Thread thread;
+
+    /**
+     * 创建录像文件（已存在时失败）并启动写入线程
+     */
+    public RecordingWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            indexChannel = FileChannel.open(indexPath(path), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        startMillis = System.currentTimeMillis();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).put((byte) VERSION).putLong(startMillis).flip();
+        writeFully(channel, new ByteBuffer[] {header});
+        thread = new Thread(this, "recording-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 录像文件对应的索引文件
+     */
+    public static Path indexPath(Path path) {
+        return Paths.get(path.toString() + INDEX_SUFFIX);
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * 追加一条记录（不阻塞），时刻取加入队列的时间，文件中记录的时刻不会倒退
+     * @param type 记录类型，见 REC_*
+     * @param payload 记录内容，写出之前调用方不能修改其中的数据
+     * @return 积压过多或已关闭、记录被丢弃时返回false
+     */
+    public boolean append(int type, List<ByteBuffer> payload) {
+        int length = 0;
+        for (ByteBuffer buffer : payload) {
+            length += buffer.remaining();
+        }
+        synchronized (this) {
+            if (closed || queuedBytes + length > MAX_QUEUED_BYTES) {
+                Metrics.RECORD_DROPPED.increment();
+                return false;
+            }
+            queue.add(new Record(type, (int) (System.currentTimeMillis() - startMillis), length, payload));
+            queuedBytes += RECORD_HEADER_LENGTH + length;
+            notifyAll();
+        }
+        return true;
+    }
+
+    public boolean append(int type, byte[] payload) {
+        return append(type, Collections.singletonList(ByteBuffer.wrap(payload)));
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                List<Record> batch;
+                synchronized (this) {
+                    while (!closed && queue.isEmpty()) {
+                        wait();
+                    }
+                    if (queue.isEmpty()) {
+                        break;      // 已关闭且全部写出
+                    }
+                    batch = new ArrayList<>(queue);
+                    queue.clear();
+                }
+                long bytes = write(batch);
+                synchronized (this) {
+                    queuedBytes -= bytes;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("写入录像时出错: " + e.getMessage());
+            synchronized (this) {
+                closed = true;
+                queue.clear();
+            }
+        }
+    }
+
+    /**
+     * 一批记录一次聚集写出，其中的关键帧同时写入索引
+     * @return 写出的字节数
+     */
+    private long write(List<Record> batch) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        ByteBuffer index = null;
+        long start = position;
+        for (Record record : batch) {
+            if (record.type == REC_KEYFRAME) {
+                if (index == null) {
+                    index = ByteBuffer.allocate(batch.size() * INDEX_ENTRY_LENGTH);
+                }
+                index.putInt(record.time).putLong(position);
+            }
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LENGTH);
+            header.put((byte) record.type).putInt(record.time).putInt(record.length).flip();
+            buffers.add(header);
+            buffers.addAll(record.payload);
+            position += RECORD_HEADER_LENGTH + record.length;
+        }
+        writeFully(channel, buffers.toArray(new ByteBuffer[0]));
+        // 索引在记录之后写出，索引中的偏移总是指向已经写出的记录
+        if (index != null) {
+            index.flip();
+            writeFully(indexChannel, new ByteBuffer[] {index});
+        }
+        Metrics.RECORD_BYTES.add(position - start);
+        return position - start;
+    }
+
+    /**
+     * 聚集写一次可能写不完（单次写出的缓冲区个数有上限），循环到全部写出
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        int first = 0;
+        while (first < buffers.length) {
+            channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    /**
+     * 写出队列中剩余的记录，刷到磁盘后关闭文件
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (released) {
+                return;
+            }
+            released = true;
+        }
+        try {
+            channel.force(false);
+            indexChannel.force(false);
+        } catch (IOException e) {
+            System.err.println("写入录像时出错: " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+                indexChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static final class Record {
+        final int type;
+        final int time;
+        final int length;
+        final List<ByteBuffer> payload;
+
+        Record(int type, int time, int length, List<ByteBuffer> payload) {
+            this.type = type;
+            this.time = time;
+            this.length = length;
+            this.payload = payload;
+        }
+    }
+}
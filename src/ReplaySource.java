@@ -0,0 +1,155 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 循环回放会话录像（RecordingWriter 写出的文件）作为画面来源：用真实的操作画面压测，不需要桌面。
+ * 截屏时按录像开始以来的时间把记录解码到一份画面上，到结尾后从第一个关键帧重新开始；
+ * 虚拟桌面只有一个显示器，大小为录像第一个关键帧的编码尺寸，指针位置取自录像中的指针记录
+ */
+public class ReplaySource implements FrameSource {
+    private final RecordingReader reader;
+    private final Rectangle display;
+    // 以下由本对象的锁保护
+    private BufferedImage canvas;
+    private long startMillis;       // 本轮回放开始的时间
+    private long offset;            // 下一条要应用的记录
+    private Point pointer;
+
+    public ReplaySource(RecordingReader reader) throws IOException {
+        this.reader = reader;
+        long first = reader.keyFrameBefore(0);
+        RecordingReader.Record record = reader.read(first);
+        if (record == null) {
+            throw new IOException("录像中没有关键帧");
+        }
+        ByteBuffer info = ByteBuffer.wrap(record.getPayload());
+        display = new Rectangle(0, 0, info.getInt(20), info.getInt(24));
+        canvas = new BufferedImage(display.width, display.height, BufferedImage.TYPE_INT_RGB);
+        restart();
+    }
+
+    private void restart() {
+        startMillis = System.currentTimeMillis();
+        offset = reader.keyFrameBefore(0);
+    }
+
+    @Override
+    public List<Rectangle> displayBounds() {
+        return Collections.singletonList(new Rectangle(display));
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        return capture(area, null);
+    }
+
+    @Override
+    public boolean fillsTarget() {
+        return true;
+    }
+
+    @Override
+    public synchronized BufferedImage capture(Rectangle area, BufferedImage target) {
+        advance();
+        Rectangle visible = area.intersection(new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight()));
+        BufferedImage image;
+        if (ScreenCapture.isReusable(target, area)) {
+            image = target;
+            // 复用的图像中还是上一帧，画面之外的部分要清掉
+            if (!visible.equals(area)) {
+                Arrays.fill(ScreenCapture.pixelsOf(image), 0);
+            }
+        } else {
+            image = new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        }
+        if (!visible.isEmpty()) {
+            image.getRaster().setRect(-area.x, -area.y,
+                    canvas.getRaster().createChild(visible.x, visible.y, visible.width, visible.height,
+                            visible.x, visible.y, null));
+        }
+        return image;
+    }
+
+    @Override
+    public synchronized Point getPointerLocation() {
+        advance();
+        return pointer == null ? null : new Point(pointer);
+    }
+
+    @Override
+    public Robot createRobot() {
+        return null;
+    }
+
+    /**
+     * 应用到当前时刻为止的记录，已到结尾时重新开始
+     */
+    private void advance() {
+        try {
+            long elapsed = System.currentTimeMillis() - startMillis;
+            RecordingReader.Record record;
+            while ((record = reader.read(offset)) != null && record.getTime() <= elapsed) {
+                apply(record);
+                offset = record.getNextOffset();
+            }
+            if (record == null && elapsed > reader.getDuration()) {
+                restart();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取录像时出错", e);
+        }
+    }
+
+    private void apply(RecordingReader.Record record) throws IOException {
+        byte[] payload = record.getPayload();
+        switch (record.getType()) {
+            case RecordingWriter.REC_KEYFRAME:
+                decode(payload, RecordingWriter.STREAM_INFO_LENGTH);
+                break;
+
+            case RecordingWriter.REC_FRAME:
+                decode(payload, 0);
+                break;
+
+            case RecordingWriter.REC_CURSOR:
+                ByteBuffer cursor = ByteBuffer.wrap(payload);
+                pointer = new Point(cursor.getInt(), cursor.getInt());
+                break;
+
+            default:
+                break;      // 输入记录和以后版本增加的记录类型
+        }
+    }
+
+    /**
+     * 把一帧解码到画面上；录像中没有缓存引用
+     */
+    private void decode(byte[] payload, int start) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, start, payload.length - start));
+        FrameDecoder.FrameUpdate update = FrameDecoder.FrameUpdate.readFrom(in, FrameCodecs.SUPPORTED);
+        if (update.getKeyFrameSize() != null && (canvas.getWidth() != update.getKeyFrameSize().width
+                || canvas.getHeight() != update.getKeyFrameSize().height)) {
+            canvas = new BufferedImage(update.getKeyFrameSize().width, update.getKeyFrameSize().height,
+                    BufferedImage.TYPE_INT_RGB);
+        }
+        for (EncodedFrame.Patch patch : update.patches()) {
+            for (CopyRect copy : patch.getCopies()) {
+                copy.apply(canvas);
+            }
+            for (EncodedFrame.Tile tile : patch.getTiles()) {
+                FrameCodecs.forCurrentThread(tile.getCodec())
+                        .decode(tile.getData(), tile.getOffset(), tile.getLength(), canvas, tile.getBounds());
+            }
+        }
+    }
+}
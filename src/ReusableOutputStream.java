@@ -0,0 +1,18 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * 可复用的字节输出流：reset() 后保留已分配的数组，并可直接访问底层数组，避免 toByteArray() 复制
+ */
+public class ReusableOutputStream extends ByteArrayOutputStream {
+
+    public ReusableOutputStream(int initialSize) {
+        super(initialSize);
+    }
+
+    /**
+     * 底层数组，有效数据为 [0, size())，下次写入或 reset() 后内容可能改变
+     */
+    public byte[] getBuffer() {
+        return buf;
+    }
+}
@@ -0,0 +1,445 @@
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 屏幕广播器：每路画面一个截屏线程，各区域切成条带后由 TileWorkers 并行编码，
+ * 编码结果放入环形缓冲区，由各客户端的发送线程按自己的速度读取。
+ * 画面有变化时按 FRAME_INTERVAL 截屏，长时间不变时降到 IDLE_FRAME_INTERVAL，有输入时立即恢复
+ */
+public class ScreenBroadcaster implements Runnable {
+    // 环形缓冲区保留的帧数，落后超过该数量的客户端需要重新获取关键帧
+    private static final int RING_SIZE = 16;
+    // 较高的区域按该高度切成条带分别编码（16的倍数，JPEG的块不会跨条带）
+    private static final int STRIPE_HEIGHT = Protocol.TILE_SIZE * 2;
+    private static final int TILE_BUFFER_SIZE = 256 * 1024;
+    // 连续这么多帧画面没有变化后开始逐步降低截屏频率，直到 Protocol.IDLE_FRAME_INTERVAL
+    private static final int IDLE_AFTER_FRAMES = 10;
+    // 每个编码线程复用的输出缓冲区，编码完成后按实际长度复制出来
+    private static final ThreadLocal<ReusableOutputStream> TILE_BUFFERS =
+            ThreadLocal.withInitial(() -> new ReusableOutputStream(TILE_BUFFER_SIZE));
+
+    private final ScreenCapture screenCapture;
+    private final ImageScaler scaler;
+    private final ColorReducer reducer;
+    private final EncodedFrame[] ring = new EncodedFrame[RING_SIZE];
+    private final List<Runnable> frameListeners = new CopyOnWriteArrayList<>();
+    private long head = 0;                      // 下一帧的序号
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private volatile double encodeMillis = 0;   // 平均编码耗时
+    private boolean keyFrameRequested = false;
+    // 截屏调度（由本对象的锁保护）：按截屏开始时刻加帧间隔定下次截屏时刻，处理耗时计入帧间隔
+    private long captureInterval = Protocol.FRAME_INTERVAL;
+    private long lastCaptureAt = 0;
+    private long nextCaptureAt = 0;
+    private int unchangedFrames = 0;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public ScreenBroadcaster(ScreenCapture screenCapture) {
+        this(screenCapture, screenCapture.getScreenSize());
+    }
+
+    /**
+     * @param outputSize 编码的画面尺寸，比捕获区域小时先缩小再比较和编码
+     */
+    public ScreenBroadcaster(ScreenCapture screenCapture, Dimension outputSize) {
+        this(screenCapture, outputSize, PixelFormat.TRUE_COLOR);
+    }
+
+    /**
+     * @param outputSize 编码的画面尺寸，比捕获区域小时先缩小再比较和编码
+     * @param format 像素格式，低于24位时缩小之后先降低颜色深度
+     */
+    public ScreenBroadcaster(ScreenCapture screenCapture, Dimension outputSize, PixelFormat format) {
+        this.screenCapture = screenCapture;
+        this.scaler = new ImageScaler(ImageScaler.Quality.fromSystemProperty(), outputSize.width, outputSize.height);
+        this.reducer = new ColorReducer(format);
+    }
+
+    /**
+     * 启动截屏编码线程
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this, "screen-broadcaster");
+        thread.start();
+    }
+
+    /**
+     * 停止截屏编码线程并唤醒所有等待中的客户端
+     */
+    public synchronized void stop() {
+        running = false;
+        notifyAll();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 有输入或指针移动：恢复全速截屏，距上次截屏已满一个帧间隔时立即截屏
+     */
+    public synchronized void onActivity() {
+        unchangedFrames = 0;
+        if (captureInterval != Protocol.FRAME_INTERVAL) {
+            captureInterval = Protocol.FRAME_INTERVAL;
+            nextCaptureAt = Math.min(nextCaptureAt, lastCaptureAt + captureInterval);
+            notifyAll();
+        }
+    }
+
+    /**
+     * 按本次截屏的结果安排下次截屏：画面有变化时全速，连续不变时逐步放慢；已经落后时立即开始，不补帧
+     */
+    private synchronized void scheduleNext(long captureStart, boolean changed) {
+        if (changed) {
+            unchangedFrames = 0;
+            captureInterval = Protocol.FRAME_INTERVAL;
+        } else if (++unchangedFrames > IDLE_AFTER_FRAMES) {
+            captureInterval = Math.min(Protocol.IDLE_FRAME_INTERVAL, captureInterval * 3 / 2);
+        }
+        lastCaptureAt = captureStart;
+        nextCaptureAt = captureStart + captureInterval;
+    }
+
+    /**
+     * 注册新帧通知，用于不阻塞等待新帧的调用方（如NIO事件循环）
+     * @param listener 每发布一帧后调用，须立即返回
+     */
+    public void addFrameListener(Runnable listener) {
+        frameListeners.add(listener);
+    }
+
+    /**
+     * 订阅画面，新订阅者从下一个关键帧开始接收
+     * @param codecMask 该客户端支持的编解码器掩码（握手协商的结果）
+     */
+    public synchronized Subscription subscribe(int codecMask) {
+        Subscription subscription = new Subscription(codecMask);
+        subscriptions.add(subscription);
+        notifyAll();
+        return subscription;
+    }
+
+    /**
+     * 平均每帧的编码耗时（毫秒）
+     */
+    public double getEncodeMillis() {
+        return encodeMillis;
+    }
+
+    /**
+     * 是否还有客户端在订阅
+     */
+    public synchronized boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * 所有客户端建议质量中的最小值，保证最慢的客户端也能跟上
+     */
+    private synchronized float targetQuality() {
+        float quality = Protocol.IMAGE_QUALITY;
+        for (Subscription subscription : subscriptions) {
+            quality = Math.min(quality, subscription.preferredQuality);
+        }
+        return quality;
+    }
+
+    /**
+     * 所有客户端都支持的编解码器；画面只编码一次，必须每个客户端都能解码
+     */
+    private synchronized int commonCodecs() {
+        int mask = FrameCodecs.SUPPORTED;
+        for (Subscription subscription : subscriptions) {
+            mask &= subscription.codecMask;
+        }
+        return mask;
+    }
+
+    @Override
+    public void run() {
+        FrameDiffer differ = new FrameDiffer(Protocol.TILE_SIZE);
+        while (running) {
+            long captureStart = 0;
+            boolean changed = false;
+            try {
+                synchronized (this) {
+                    // 没有客户端时不截屏；等到下次截屏时刻，有输入或新客户端需要关键帧时提前
+                    while (running) {
+                        if (subscriptions.isEmpty()) {
+                            wait();
+                            continue;
+                        }
+                        // 新客户端等待关键帧时不受空闲间隔限制，但也不超过全速
+                        long due = keyFrameRequested
+                                ? Math.min(nextCaptureAt, lastCaptureAt + Protocol.FRAME_INTERVAL) : nextCaptureAt;
+                        long delay = due - System.currentTimeMillis();
+                        if (delay <= 0) {
+                            break;
+                        }
+                        wait(delay);
+                    }
+                    if (keyFrameRequested) {
+                        differ.reset();
+                    }
+                }
+                if (!running) break;
+                captureStart = System.currentTimeMillis();
+                float quality = targetQuality();
+                int codecMask = commonCodecs();
+
+                // 捕获屏幕（按需缩小、降低颜色深度），与上一帧比较，画面没有变化时不发布；滚动的部分只发送复制操作
+                BufferedImage captured = screenCapture.captureScreen();
+                long scaleStart = System.nanoTime();
+                BufferedImage image = scaler.scale(captured);
+                if (image != captured) {
+                    Metrics.SCALE.recordSince(scaleStart);
+                }
+                if (reducer.getFormat() != PixelFormat.TRUE_COLOR) {
+                    long reduceStart = System.nanoTime();
+                    reducer.reduce(image);
+                    Metrics.REDUCE.recordSince(reduceStart);
+                }
+                long diffStart = System.nanoTime();
+                List<Rectangle> regions = differ.diff(image);
+                List<CopyRect> copies = differ.getCopies();
+                Metrics.DIFF.recordSince(diffStart);
+                changed = !regions.isEmpty() || !copies.isEmpty();
+                if (changed) {
+                    long encodeStart = System.nanoTime();
+                    boolean full = differ.changedRatio(regions) >= Protocol.FULL_FRAME_RATIO;
+                    if (full) {
+                        regions = Collections.singletonList(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+                        copies = Collections.emptyList();
+                    }
+                    encodeAndPublish(image, copies, regions, codecMask, quality, full);
+                    Metrics.ENCODE.recordSince(encodeStart);
+                    double millis = (System.nanoTime() - encodeStart) / 1e6;
+                    encodeMillis = encodeMillis == 0 ? millis : encodeMillis * 0.75 + millis * 0.25;
+                } else {
+                    Metrics.FRAMES_UNCHANGED.increment();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                System.err.println("截屏编码时出错: " + e.getMessage());
+            }
+            // 出错时也按帧间隔重试，不空转
+            scheduleNext(captureStart != 0 ? captureStart : System.currentTimeMillis(), changed);
+        }
+    }
+
+    private void encodeAndPublish(BufferedImage image, List<CopyRect> copies, List<Rectangle> regions,
+                                  int codecMask, float quality, boolean full) throws IOException {
+        List<EncodedFrame.Tile> tiles = encodeTiles(image, regions, codecMask, quality, reducer.getFormat());
+        publish(full ? new Dimension(image.getWidth(), image.getHeight()) : null, copies, tiles);
+    }
+
+    /**
+     * 把区域切成条带，由 TileWorkers 并行编码，每个条带按内容选择编解码器
+     * @param codecMask 可以使用的编解码器
+     * @param quality JPEG质量
+     * @return 编码后的条带，顺序与区域相同
+     */
+    public static List<EncodedFrame.Tile> encodeTiles(BufferedImage image, List<Rectangle> regions,
+                                                      int codecMask, float quality) throws IOException {
+        return encodeTiles(image, regions, codecMask, quality, PixelFormat.TRUE_COLOR);
+    }
+
+    /**
+     * 同上，画面已降到指定的像素格式，按格式选择编解码器
+     */
+    public static List<EncodedFrame.Tile> encodeTiles(BufferedImage image, List<Rectangle> regions,
+                                                      int codecMask, float quality, PixelFormat format)
+            throws IOException {
+        List<Callable<EncodedFrame.Tile>> tasks = new ArrayList<>();
+        for (Rectangle stripe : splitStripes(regions)) {
+            tasks.add(() -> encodeTile(image, stripe, codecMask, quality, format));
+        }
+        return TileWorkers.invokeAll(tasks);
+    }
+
+    /**
+     * 在当前线程中编码一个条带，使用该线程自己的编解码器和输出缓冲区
+     * @param quality JPEG质量，不超过像素格式的上限（PixelFormat.getMaxQuality）
+     */
+    static EncodedFrame.Tile encodeTile(BufferedImage image, Rectangle stripe, int codecMask, float quality,
+                                        PixelFormat format) throws IOException {
+        long start = System.nanoTime();
+        ReusableOutputStream buffer = TILE_BUFFERS.get();
+        buffer.reset();
+        quality = Math.min(quality, format.getMaxQuality());
+        // 较大的条带附上内容哈希（与选择编解码器共用一遍扫描），客户端已缓存同样内容时只发送引用
+        long[] hash = TileCache.isCacheable(stripe) ? new long[1] : null;
+        int codecId = FrameCodecs.choose(image, stripe, codecMask, format, hash);
+        FrameCodec codec = FrameCodecs.forCurrentThread(codecId);
+        codec.setQuality(quality);
+        int length = codec.encode(image, stripe, buffer);
+        Metrics.TILE_ENCODE.recordSince(start);
+        return new EncodedFrame.Tile(stripe, codecId, Arrays.copyOf(buffer.getBuffer(), length),
+                0, length, hash != null ? hash[0] : 0);
+    }
+
+    /**
+     * 高于 STRIPE_HEIGHT 的区域切成等高的条带，既能并行编码，也让每个条带各自选择编解码器
+     */
+    static List<Rectangle> splitStripes(List<Rectangle> regions) {
+        List<Rectangle> stripes = new ArrayList<>();
+        for (Rectangle region : regions) {
+            for (int y = 0; y < region.height; y += STRIPE_HEIGHT) {
+                stripes.add(new Rectangle(region.x, region.y + y, region.width,
+                        Math.min(STRIPE_HEIGHT, region.height - y)));
+            }
+        }
+        return stripes;
+    }
+
+    private synchronized void publish(Dimension keyFrameSize, List<CopyRect> copies, List<EncodedFrame.Tile> tiles) {
+        EncodedFrame frame = new EncodedFrame(head, keyFrameSize, copies, tiles);
+        long bytes = 0;
+        for (EncodedFrame.Tile tile : tiles) {
+            bytes += tile.getLength();
+        }
+        Metrics.FRAME_BYTES.record(bytes);
+        Metrics.FRAMES_PUBLISHED.increment();
+        ring[(int) (head % RING_SIZE)] = frame;
+        head++;
+        if (frame.isKeyFrame()) {
+            keyFrameRequested = false;
+        }
+        notifyAll();
+        for (Runnable listener : frameListeners) {
+            listener.run();
+        }
+    }
+
+    private EncodedFrame frameAt(long sequence) {
+        return ring[(int) (sequence % RING_SIZE)];
+    }
+
+    /**
+     * 单个客户端的读取位置
+     */
+    public class Subscription implements AutoCloseable {
+        private long nextSequence = -1;         // -1 表示正在等待关键帧
+        private long keyFrameFrom = -1;         // 请求关键帧时的序号
+        private boolean closed = false;
+        private final int codecMask;
+        private volatile float preferredQuality = Protocol.IMAGE_QUALITY;
+
+        Subscription(int codecMask) {
+            this.codecMask = codecMask;
+        }
+
+        /**
+         * 设置该客户端建议的JPEG质量，编码线程取所有客户端中的最小值
+         */
+        public void setPreferredQuality(float quality) {
+            preferredQuality = quality;
+        }
+
+        /**
+         * 所订阅画面的平均编码耗时（毫秒）
+         */
+        public double getEncodeMillis() {
+            return encodeMillis;
+        }
+
+        /**
+         * 取出从上次读取位置到最新帧之间的所有帧，合并为一帧返回
+         * @param timeoutMillis 没有新帧时最多等待的毫秒数
+         * @return 合并后的帧；超时或广播器已停止时返回null
+         */
+        public EncodedFrame next(long timeoutMillis) throws InterruptedException {
+            synchronized (ScreenBroadcaster.this) {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (running && !closed) {
+                    // 落后太多（所需帧已被覆盖）时改为等待关键帧
+                    if (nextSequence >= 0 && nextSequence < head - RING_SIZE) {
+                        nextSequence = -1;
+                        Metrics.FRAMES_RESYNC.increment();
+                    }
+                    if (nextSequence < 0) {
+                        findKeyFrame();
+                    }
+                    if (nextSequence >= 0 && nextSequence < head) {
+                        List<EncodedFrame> frames = new ArrayList<>();
+                        for (long s = nextSequence; s < head; s++) {
+                            frames.add(frameAt(s));
+                        }
+                        nextSequence = head;
+                        Metrics.FRAMES_MERGED.add(frames.size() - 1);
+                        return EncodedFrame.merge(frames);
+                    }
+
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    ScreenBroadcaster.this.wait(remaining);
+                }
+                return null;
+            }
+        }
+
+        /**
+         * 改为从下一个关键帧开始接收，用于客户端的画面需要整体重画时（如区域缓存被清空）
+         */
+        public void resync() {
+            synchronized (ScreenBroadcaster.this) {
+                nextSequence = -1;
+                keyFrameFrom = -1;
+                ScreenBroadcaster.this.notifyAll();
+            }
+        }
+
+        private void findKeyFrame() {
+            long oldest = Math.max(0, head - RING_SIZE);
+            if (keyFrameFrom >= 0) {
+                for (long s = head - 1; s >= Math.max(oldest, keyFrameFrom); s--) {
+                    if (frameAt(s).isKeyFrame()) {
+                        nextSequence = s;
+                        keyFrameFrom = -1;
+                        return;
+                    }
+                }
+            }
+            // 尚未请求，或请求的关键帧已被覆盖，重新请求
+            if (keyFrameFrom < 0 || (!keyFrameRequested && keyFrameFrom < oldest)) {
+                keyFrameFrom = head;
+                keyFrameRequested = true;
+                ScreenBroadcaster.this.notifyAll();
+            }
+        }
+
+        public boolean isClosed() {
+            synchronized (ScreenBroadcaster.this) {
+                return closed;
+            }
+        }
+
+        /**
+         * 取消订阅，正在 next() 中等待的线程随即返回null
+         */
+        @Override
+        public void close() {
+            synchronized (ScreenBroadcaster.this) {
+                if (!closed) {
+                    closed = true;
+                    subscriptions.remove(this);
+                    ScreenBroadcaster.this.notifyAll();
+                }
+            }
+        }
+    }
+}
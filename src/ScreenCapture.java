@@ -1,35 +1,95 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 /**
- * 屏幕捕获类，使用Robot类捕获屏幕
+ * 屏幕捕获类：从画面来源（默认用Robot截取本机桌面）取出一个区域的画面。
+ * 能写入调用方图像的来源（合成画面、录像回放）写入两份轮流使用的 TYPE_INT_RGB 图像（双缓冲），稳态下每帧不再分配整帧的像素数组；
+ * Robot 截屏总是返回新的图像，不为它分配这两份缓冲。
+ * 后续的缩小、差异检测和编码都通过 pixelsOf 直接读写底层的 int[]，不经过颜色模型
  */
 public class ScreenCapture {
-    private Robot robot;
+    private final FrameSource source;
     private Rectangle screenRect;
+    private final BufferedImage[] buffers = new BufferedImage[2];
+    private int nextBuffer;
     
     public ScreenCapture() throws AWTException {
-        this.robot = new Robot();
+        this.source = new DesktopSource();
         // 获取屏幕尺寸
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
         this.screenRect = new Rectangle(0, 0, screenSize.width, screenSize.height);
     }
     
     /**
-     * 捕获整个屏幕
+     * 只捕获虚拟桌面中的指定区域（某个显示器或其中的一部分）
+     * @param area 捕获区域，虚拟桌面坐标
+     */
+    public ScreenCapture(Rectangle area) throws AWTException {
+        this(new DesktopSource(), area);
+    }
+    
+    /**
+     * 从指定的画面来源捕获区域
+     * @param source 画面来源（本机桌面、合成画面或录像回放）
+     * @param area 捕获区域，虚拟桌面坐标
+     */
+    public ScreenCapture(FrameSource source, Rectangle area) {
+        this.source = source;
+        this.screenRect = new Rectangle(area);
+    }
+    
+    /**
+     * 捕获整个屏幕（或构造时指定的区域）
      * @return 屏幕图像
      */
     public BufferedImage captureScreen() {
-        return robot.createScreenCapture(screenRect);
+        return captureScreen(screenRect);
     }
     
     /**
      * 捕获指定区域的屏幕
      * @param rect 捕获区域
-     * @return 屏幕图像
+     * @return 屏幕图像，在下下次调用之前有效（调用方可以一直持有上一帧）
      */
     public BufferedImage captureScreen(Rectangle rect) {
-        return robot.createScreenCapture(rect);
+        long start = System.nanoTime();
+        if (!source.fillsTarget()) {
+            BufferedImage image = source.capture(rect);
+            Metrics.CAPTURE.recordSince(start);
+            return image;
+        }
+        BufferedImage buffer = buffers[nextBuffer];
+        if (!isReusable(buffer, rect)) {
+            buffer = new BufferedImage(rect.width, rect.height, BufferedImage.TYPE_INT_RGB);
+            buffers[nextBuffer] = buffer;
+        }
+        nextBuffer ^= 1;
+        BufferedImage image = source.capture(rect, buffer);
+        Metrics.CAPTURE.recordSince(start);
+        return image;
+    }
+
+    /**
+     * 图像能否用来接收指定区域的画面：TYPE_INT_RGB、大小相同、像素数组没有被其他图像共享
+     */
+    static boolean isReusable(BufferedImage image, Rectangle area) {
+        return image != null && image.getWidth() == area.width && image.getHeight() == area.height
+                && pixelsOf(image) != null;
+    }
+
+    /**
+     * 取出 TYPE_INT_RGB 图像底层的像素数组（每行 width 个像素，无填充）
+     * @return 图像不是这种布局（其他类型、子图像）时返回null，调用方改用 getRGB
+     */
+    static int[] pixelsOf(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB
+                || !(image.getRaster().getDataBuffer() instanceof DataBufferInt)
+                || image.getRaster().getParent() != null) {
+            return null;
+        }
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        return data.length == image.getWidth() * image.getHeight() ? data : null;
     }
     
     /**
@@ -39,6 +99,13 @@ public class ScreenCapture {
     public Dimension getScreenSize() {
         return screenRect.getSize();
     }
+    
+    /**
+     * 捕获区域在虚拟桌面中的位置和大小
+     */
+    public Rectangle getCaptureArea() {
+        return new Rectangle(screenRect);
+    }
 }
 
 
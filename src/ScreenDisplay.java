@@ -1,28 +1,46 @@
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * 屏幕显示窗口
  */
 public class ScreenDisplay extends JFrame {
+    // 本地绘制的箭头指针（热点在左上角）
+    private static final int[] CURSOR_XS = {0, 0, 4, 7, 9, 6, 11};
+    private static final int[] CURSOR_YS = {0, 16, 12, 19, 18, 11, 11};
+    
     private ScreenPanel screenPanel;
     private int screenWidth;
     private int screenHeight;
+    private int currentDisplay = 0;
+    private String titlePrefix = "远程桌面 - 客户端";
+    // 回放模式的控件，见 setupPlayerControls
+    private JButton playButton;
+    private JSlider playbackSlider;
+    private JLabel playbackTime;
+    private JLabel playbackStatus;
+    private boolean updatingSlider = false;
     
     public ScreenDisplay(int width, int height) {
         this.screenWidth = width;
         this.screenHeight = height;
         
-        setTitle("远程桌面 - 客户端");
+        setTitle(titlePrefix);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         
         screenPanel = new ScreenPanel();
         add(screenPanel, BorderLayout.CENTER);
+        setupViewMenu();
         
         // 计算窗口大小，适配屏幕但留出边距
         Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
@@ -42,25 +60,170 @@ public class ScreenDisplay extends JFrame {
     }
     
     /**
-     * 更新显示的图像
-     * @param imageData 图像字节数据
+     * 将面板坐标转换为屏幕坐标
      */
-    public void updateImage(byte[] imageData) {
-        try {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
-            if (image != null) {
-                screenPanel.setImage(image);
+    public Point convertToScreenCoordinates(Point panelPoint) {
+        return screenPanel.convertToScreenCoordinates(panelPoint);
+    }
+    
+    /**
+     * 服务端切换了画面（MSG_STREAM_INFO）：更新显示器序号和画面尺寸，须在界面线程调用
+     * @param width 画面的原始宽度（鼠标坐标按此换算）
+     * @param height 画面的原始高度
+     * @param scaledWidth 服务端缩小后传输的宽度
+     * @param scaledHeight 服务端缩小后传输的高度
+     */
+    public void setStream(int display, int width, int height, int scaledWidth, int scaledHeight) {
+        this.currentDisplay = display;
+        this.screenWidth = width;
+        this.screenHeight = height;
+        String title = titlePrefix + " - 显示器 " + (display + 1) + " (" + width + "x" + height + ")";
+        if (scaledWidth != width || scaledHeight != height) {
+            title += " 缩放至 " + scaledWidth + "x" + scaledHeight;
+        }
+        setTitle(title);
+    }
+    
+    /**
+     * 添加“显示器”菜单：切换显示器，或只观看当前显示器中的一块区域
+     * @param displays 服务端的显示器列表
+     * @param selector 选择后调用，参数为显示器序号和相对于该显示器的区域（宽高为0表示整个显示器）
+     */
+    public void setupDisplayMenu(List<Rectangle> displays, BiConsumer<Integer, Rectangle> selector) {
+        JMenu menu = new JMenu("显示器");
+        for (int i = 0; i < displays.size(); i++) {
+            int display = i;
+            Rectangle bounds = displays.get(i);
+            JMenuItem item = new JMenuItem("显示器 " + (i + 1) + " (" + bounds.width + "x" + bounds.height + ")");
+            item.addActionListener(e -> selector.accept(display, new Rectangle()));
+            menu.add(item);
+        }
+        menu.addSeparator();
+        JMenuItem regionItem = new JMenuItem("只看区域...");
+        regionItem.addActionListener(e -> {
+            String input = JOptionPane.showInputDialog(this, "区域（相对于当前显示器）：x,y,宽,高", "0,0,1280,720");
+            Rectangle region = parseRegion(input);
+            if (region != null) {
+                selector.accept(currentDisplay, region);
             }
-        } catch (IOException e) {
-            System.err.println("更新图像时出错: " + e.getMessage());
+        });
+        menu.add(regionItem);
+        getJMenuBar().add(menu, 0);
+        getJMenuBar().revalidate();
+    }
+    
+    /**
+     * 在“视图”菜单中加入颜色深度的选择（带宽受限时降低深度）
+     * @param current 当前的像素格式
+     * @param selector 选择后调用
+     */
+    public void setupPixelFormatMenu(PixelFormat current, Consumer<PixelFormat> selector) {
+        JMenu menu = getJMenuBar().getMenu(getJMenuBar().getMenuCount() - 1);
+        JMenu depthMenu = new JMenu("颜色深度");
+        ButtonGroup group = new ButtonGroup();
+        for (PixelFormat format : PixelFormat.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(format.getLabel(), format == current);
+            item.addActionListener(e -> selector.accept(format));
+            group.add(item);
+            depthMenu.add(item);
         }
+        menu.add(depthMenu);
     }
     
     /**
-     * 将面板坐标转换为屏幕坐标
+     * 添加“视图”菜单：在画面上叠加显示性能统计
      */
-    public Point convertToScreenCoordinates(Point panelPoint) {
-        return screenPanel.convertToScreenCoordinates(panelPoint);
+    private void setupViewMenu() {
+        JMenu menu = new JMenu("视图");
+        JCheckBoxMenuItem statsItem = new JCheckBoxMenuItem("性能统计");
+        statsItem.addActionListener(e -> screenPanel.setStatsVisible(statsItem.isSelected()));
+        menu.add(statsItem);
+        JMenuBar menuBar = new JMenuBar();
+        menuBar.add(menu);
+        setJMenuBar(menuBar);
+    }
+    
+    /**
+     * 回放模式：窗口底部加上播放/暂停按钮、进度条、时间和最近一条输入，须在界面线程调用
+     * @param duration 录像时长（毫秒）
+     * @param seek 松开进度条后调用，参数为目标时刻（毫秒）
+     * @param togglePause 点击播放/暂停按钮后调用
+     */
+    public void setupPlayerControls(int duration, IntConsumer seek, Runnable togglePause) {
+        titlePrefix = "远程桌面 - 回放";
+        setTitle(titlePrefix);
+        playButton = new JButton("暂停");
+        playButton.addActionListener(e -> togglePause.run());
+        playbackSlider = new JSlider(0, Math.max(duration, 1), 0);
+        playbackSlider.addChangeListener(e -> {
+            // 拖动过程中只更新时间，松开后才定位；播放进度引起的变化不触发定位
+            playbackTime.setText(formatTime(playbackSlider.getValue()) + " / " + formatTime(duration));
+            if (!updatingSlider && !playbackSlider.getValueIsAdjusting()) {
+                seek.accept(playbackSlider.getValue());
+            }
+        });
+        playbackTime = new JLabel(formatTime(0) + " / " + formatTime(duration));
+        playbackStatus = new JLabel(" ");
+        
+        JPanel controls = new JPanel(new BorderLayout(8, 0));
+        controls.add(playButton, BorderLayout.WEST);
+        controls.add(playbackSlider, BorderLayout.CENTER);
+        controls.add(playbackTime, BorderLayout.EAST);
+        JPanel south = new JPanel(new BorderLayout());
+        south.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
+        south.add(controls, BorderLayout.NORTH);
+        south.add(playbackStatus, BorderLayout.SOUTH);
+        add(south, BorderLayout.SOUTH);
+        revalidate();
+    }
+    
+    /**
+     * 更新播放进度，用户正在拖动进度条时不改动，须在界面线程调用
+     * @param position 当前时刻（毫秒）
+     */
+    public void setPlaybackPosition(int position, boolean paused) {
+        playButton.setText(paused ? "播放" : "暂停");
+        if (playbackSlider.getValueIsAdjusting()) {
+            return;
+        }
+        updatingSlider = true;
+        try {
+            playbackSlider.setValue(position);
+        } finally {
+            updatingSlider = false;
+        }
+    }
+    
+    /**
+     * 在进度条下方显示一行文字（最近的输入），须在界面线程调用
+     */
+    public void setPlaybackStatus(String text) {
+        playbackStatus.setText(text);
+    }
+    
+    private static String formatTime(int millis) {
+        int seconds = millis / 1000;
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+    
+    /**
+     * 解析 "x,y,宽,高" 形式的区域
+     * @return 格式不对时返回null
+     */
+    public static Rectangle parseRegion(String text) {
+        if (text == null) {
+            return null;
+        }
+        String[] parts = text.split(",");
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            return new Rectangle(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                    Integer.parseInt(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
     
     /**
@@ -82,21 +245,151 @@ public class ScreenDisplay extends JFrame {
      * 自定义面板，用于绘制和缩放图像
      */
     public class ScreenPanel extends JPanel {
+        // 本地鼠标移动后这么久之内按本地位置画指针（预测），之后以服务端报告的位置为准
+        private static final long CURSOR_PREDICTION_MILLIS = 300;
+        // 尚未缩放的区域超过这么多个时改为整个重新缩放
+        private static final int MAX_STALE_REGIONS = 64;
+        
         private BufferedImage image;
         private int imageX, imageY, imageWidth, imageHeight;
+        // 缩放到显示大小的画面，放在显存中；只有收到新区域的部分重新缩放，大小变化时整个重画
+        private VolatileImage scaledImage;
+        private boolean scaledStale = true;                             // scaledImage 需要整个重画
+        private final List<Rectangle> staleRegions = new ArrayList<>(); // 画面中已更新、尚未缩放进 scaledImage 的区域
+        private volatile Point remoteCursor;    // 服务端报告的指针位置（画面区域中未缩放的坐标）
+        private Point localCursor;              // 本地鼠标在面板中的位置，不在面板内时为null
+        private long localMovedAt;
+        private Rectangle cursorBounds;         // 上次画指针的范围，用于局部重绘
+        private final StatsOverlay statsOverlay = new StatsOverlay(this);
         
         public ScreenPanel() {
             setBackground(Color.BLACK);
             setFocusable(true);
             setFocusTraversalKeysEnabled(false);
+            
+            // 隐藏系统指针，由面板自己画：本地移动时立即跟随，远程指针自己移动时按服务端的位置
+            setCursor(getToolkit().createCustomCursor(
+                    new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB), new Point(), "remote"));
+            MouseAdapter cursorListener = new MouseAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    moveLocalCursor(e.getPoint());
+                }
+                
+                @Override
+                public void mouseDragged(MouseEvent e) {
+                    moveLocalCursor(e.getPoint());
+                }
+                
+                @Override
+                public void mouseExited(MouseEvent e) {
+                    moveLocalCursor(null);
+                }
+            };
+            addMouseListener(cursorListener);
+            addMouseMotionListener(cursorListener);
+        }
+        
+        /**
+         * 显示或隐藏性能统计，须在界面线程调用
+         */
+        public void setStatsVisible(boolean visible) {
+            statsOverlay.setVisible(visible);
+        }
+        
+        /**
+         * 服务端报告的指针位置（MSG_CURSOR），可在任意线程调用
+         */
+        public void setRemoteCursor(int x, int y) {
+            remoteCursor = new Point(x, y);
+            SwingUtilities.invokeLater(this::repaintCursor);
+        }
+        
+        private void moveLocalCursor(Point point) {
+            localCursor = point;
+            localMovedAt = System.currentTimeMillis();
+            repaintCursor();
+        }
+        
+        /**
+         * 只重绘指针的旧位置和新位置
+         */
+        private void repaintCursor() {
+            if (cursorBounds != null) {
+                repaint(cursorBounds);
+            }
+            Rectangle bounds = cursorBoundsAt(cursorPosition());
+            if (bounds != null) {
+                repaint(bounds);
+            }
+        }
+        
+        /**
+         * 指针在面板中的位置：本地刚移动过时用本地位置，否则用服务端报告的位置
+         * @return 不需要画指针时返回null
+         */
+        private Point cursorPosition() {
+            if (localCursor != null && System.currentTimeMillis() - localMovedAt < CURSOR_PREDICTION_MILLIS) {
+                return localCursor;
+            }
+            Point remote = remoteCursor;
+            if (remote == null || image == null || imageWidth == 0 || imageHeight == 0) {
+                return localCursor;
+            }
+            if (remote.x < 0 || remote.y < 0 || remote.x >= screenWidth || remote.y >= screenHeight) {
+                return null;    // 指针不在观看的区域内
+            }
+            return new Point(imageX + (int) ((long) remote.x * imageWidth / screenWidth),
+                    imageY + (int) ((long) remote.y * imageHeight / screenHeight));
+        }
+        
+        private Rectangle cursorBoundsAt(Point position) {
+            return position == null ? null : new Rectangle(position.x - 1, position.y - 1, 14, 22);
         }
         
         public void setImage(BufferedImage image) {
             this.image = image;
+            scaledStale = true;
+            staleRegions.clear();
             calculateImageBounds();
             repaint();
         }
         
+        /**
+         * 画面中的这些区域（画面坐标）已更新：只重新缩放和重绘它们，须在界面线程调用
+         */
+        public void repaintImage(List<Rectangle> regions) {
+            if (image == null) {
+                return;
+            }
+            if (staleRegions.size() + regions.size() > MAX_STALE_REGIONS) {
+                // 面板不可见时一直不绘制，区域不再累积
+                staleRegions.clear();
+                scaledStale = true;
+                repaint();
+                return;
+            }
+            for (Rectangle region : regions) {
+                staleRegions.add(region);
+                Rectangle scaled = toScaled(region);
+                scaled.translate(imageX, imageY);
+                repaint(scaled);
+            }
+        }
+        
+        /**
+         * 画面坐标中的区域在缩放后的画面中覆盖的范围，向外多取一个像素
+         */
+        private Rectangle toScaled(Rectangle region) {
+            double scaleX = (double) imageWidth / image.getWidth();
+            double scaleY = (double) imageHeight / image.getHeight();
+            int x1 = (int) Math.floor(region.x * scaleX) - 1;
+            int y1 = (int) Math.floor(region.y * scaleY) - 1;
+            int x2 = (int) Math.ceil((region.x + region.width) * scaleX) + 1;
+            int y2 = (int) Math.ceil((region.y + region.height) * scaleY) + 1;
+            return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+        }
+        
         private void calculateImageBounds() {
             if (image == null) return;
             
@@ -131,8 +424,74 @@ public class ScreenDisplay extends JFrame {
             super.paintComponent(g);
             if (image != null) {
                 calculateImageBounds();
-                g.drawImage(image, imageX, imageY, imageWidth, imageHeight, this);
+                long start = System.nanoTime();
+                if (!paintScaled(g)) {
+                    // 后台缓冲由解码线程写入，绘制时加锁以免画出半帧
+                    synchronized (image) {
+                        g.drawImage(image, imageX, imageY, imageWidth, imageHeight, this);
+                    }
+                }
+                Metrics.PAINT.recordSince(start);
+            }
+            Point cursor = cursorPosition();
+            cursorBounds = cursorBoundsAt(cursor);
+            if (cursor != null) {
+                g.translate(cursor.x, cursor.y);
+                g.setColor(Color.BLACK);
+                g.fillPolygon(CURSOR_XS, CURSOR_YS, CURSOR_XS.length);
+                g.setColor(Color.WHITE);
+                g.drawPolygon(CURSOR_XS, CURSOR_YS, CURSOR_XS.length);
+                g.translate(-cursor.x, -cursor.y);
+            }
+            statsOverlay.paint(g);
+        }
+        
+        /**
+         * 把缩放好的画面（显存中）按原大小画出，只有更新过的区域重新缩放
+         * @return 无法使用显存中的图像（面板还没显示）时返回false
+         */
+        private boolean paintScaled(Graphics g) {
+            GraphicsConfiguration configuration = getGraphicsConfiguration();
+            if (configuration == null || imageWidth <= 0 || imageHeight <= 0) {
+                return false;
+            }
+            int status = scaledImage == null ? VolatileImage.IMAGE_INCOMPATIBLE : scaledImage.validate(configuration);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE
+                    || scaledImage.getWidth() != imageWidth || scaledImage.getHeight() != imageHeight) {
+                if (scaledImage != null) {
+                    scaledImage.flush();
+                }
+                scaledImage = configuration.createCompatibleVolatileImage(imageWidth, imageHeight);
+                scaledStale = true;
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                scaledStale = true;     // 显存中的内容丢失过
+            }
+            if (scaledStale || !staleRegions.isEmpty()) {
+                Graphics2D sg = scaledImage.createGraphics();
+                try {
+                    synchronized (image) {
+                        if (scaledStale) {
+                            sg.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+                        } else {
+                            // 按整幅画面的缩放画出，只限定范围，与整个重画的结果逐像素相同
+                            for (Rectangle region : staleRegions) {
+                                sg.setClip(toScaled(region));
+                                sg.drawImage(image, 0, 0, imageWidth, imageHeight, null);
+                            }
+                        }
+                    }
+                } finally {
+                    sg.dispose();
+                }
+                scaledStale = false;
+                staleRegions.clear();
+            }
+            g.drawImage(scaledImage, imageX, imageY, this);
+            if (scaledImage.contentsLost()) {
+                scaledStale = true;
+                repaint();
             }
+            return true;
         }
         
         @Override
@@ -161,9 +520,9 @@ public class ScreenDisplay extends JFrame {
                 return new Point(0, 0);
             }
             
-            // 计算缩放比例
-            double scaleX = (double) image.getWidth() / imageWidth;
-            double scaleY = (double) image.getHeight() / imageHeight;
+            // 计算缩放比例：画面可能已在服务端缩小，按原始尺寸换算
+            double scaleX = (double) screenWidth / imageWidth;
+            double scaleY = (double) screenHeight / imageHeight;
             
             // 转换为原始屏幕坐标
             int screenX = (int) (relativeX * scaleX);
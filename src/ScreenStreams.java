@@ -0,0 +1,180 @@
+import java.awt.AWTException;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 画面流的登记处：每个显示器或客户端请求的区域（及缩小后的尺寸、像素格式）各有一路截屏编码（ScreenBroadcaster），
+ * 观看同一区域、窗口大小相近、颜色深度相同的客户端共用一路，只捕获和编码被观看的区域
+ */
+public class ScreenStreams {
+    private final FrameSource source;
+    private final List<Rectangle> displays;
+    private final Map<StreamKey, ScreenBroadcaster> broadcasters = new HashMap<>();
+    private final List<Runnable> frameListeners = new CopyOnWriteArrayList<>();
+    private final CursorTracker cursorTracker;
+    private boolean stopped = false;
+
+    /**
+     * @param source 画面来源，所有画面流共用（见 FrameSource.fromSystemProperty）
+     */
+    public ScreenStreams(FrameSource source) {
+        this.source = source;
+        this.displays = source.displayBounds();
+        this.cursorTracker = new CursorTracker(source);
+        // 指针移动说明有人在操作，画面很可能随之变化
+        cursorTracker.addListener(this::onActivity);
+        cursorTracker.start();
+    }
+
+    /**
+     * 画面来源，输入注入器据此决定是否真正执行输入
+     */
+    public FrameSource getSource() {
+        return source;
+    }
+
+    /**
+     * 所有显示器在虚拟桌面中的区域，主显示器在最前
+     */
+    public List<Rectangle> getDisplays() {
+        return displays;
+    }
+
+    /**
+     * 鼠标指针位置，所有画面共用
+     */
+    public CursorTracker getCursorTracker() {
+        return cursorTracker;
+    }
+
+    /**
+     * 把客户端请求的显示器和区域换算为虚拟桌面中的捕获区域
+     * @param display 显示器序号，超出范围时使用主显示器
+     * @param region 相对于该显示器的区域，宽或高为0表示整个显示器
+     * @return 捕获区域，不会超出显示器
+     */
+    public Rectangle resolve(int display, Rectangle region) {
+        Rectangle bounds = displays.get(display >= 0 && display < displays.size() ? display : 0);
+        if (region.width <= 0 || region.height <= 0) {
+            return new Rectangle(bounds);
+        }
+        Rectangle area = new Rectangle(bounds.x + region.x, bounds.y + region.y, region.width, region.height)
+                .intersection(bounds);
+        return area.isEmpty() ? new Rectangle(bounds) : area;
+    }
+
+    /**
+     * 按客户端窗口大小计算画面的编码尺寸，见 ImageScaler.fit
+     * @param area 捕获区域
+     * @param viewportWidth 客户端窗口宽度，0表示不缩放
+     * @param viewportHeight 客户端窗口高度，0表示不缩放
+     */
+    public Dimension outputSize(Rectangle area, int viewportWidth, int viewportHeight) {
+        return ImageScaler.fit(area.getSize(), viewportWidth, viewportHeight);
+    }
+
+    /**
+     * 订阅指定区域的画面，没有对应的截屏编码线程时创建一个
+     * @param area 捕获区域（resolve 的结果）
+     * @param outputSize 编码尺寸（outputSize 的结果）
+     * @param format 客户端选择的像素格式
+     * @param codecMask 该客户端支持的编解码器掩码
+     */
+    public synchronized ScreenBroadcaster.Subscription subscribe(Rectangle area, Dimension outputSize,
+                                                                 PixelFormat format, int codecMask)
+            throws AWTException {
+        if (stopped) {
+            throw new IllegalStateException("画面流已停止");
+        }
+        pruneIdle();
+        StreamKey key = new StreamKey(area, outputSize, format);
+        ScreenBroadcaster broadcaster = broadcasters.get(key);
+        if (broadcaster == null) {
+            broadcaster = new ScreenBroadcaster(new ScreenCapture(source, area), outputSize, format);
+            for (Runnable listener : frameListeners) {
+                broadcaster.addFrameListener(listener);
+            }
+            broadcaster.start();
+            broadcasters.put(key, broadcaster);
+        }
+        return broadcaster.subscribe(codecMask);
+    }
+
+    /**
+     * 注册新帧通知，对已有和以后创建的每一路画面都生效
+     */
+    public synchronized void addFrameListener(Runnable listener) {
+        frameListeners.add(listener);
+        for (ScreenBroadcaster broadcaster : broadcasters.values()) {
+            broadcaster.addFrameListener(listener);
+        }
+    }
+
+    /**
+     * 客户端发来输入或指针移动：所有画面恢复全速截屏
+     */
+    public synchronized void onActivity() {
+        for (ScreenBroadcaster broadcaster : broadcasters.values()) {
+            broadcaster.onActivity();
+        }
+    }
+
+    /**
+     * 停止所有截屏编码线程和指针轮询线程
+     */
+    public synchronized void stop() {
+        stopped = true;
+        cursorTracker.stop();
+        for (ScreenBroadcaster broadcaster : broadcasters.values()) {
+            broadcaster.stop();
+        }
+        broadcasters.clear();
+    }
+
+    /**
+     * 停掉已经没有观看者的区域；新订阅只在本对象的锁内发生，检查之后不会再有人加入
+     */
+    private void pruneIdle() {
+        for (Iterator<ScreenBroadcaster> it = broadcasters.values().iterator(); it.hasNext(); ) {
+            ScreenBroadcaster broadcaster = it.next();
+            if (!broadcaster.hasSubscribers()) {
+                broadcaster.stop();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 一路画面：捕获区域、编码尺寸和像素格式
+     */
+    private static final class StreamKey {
+        private final Rectangle area;
+        private final Dimension outputSize;
+        private final PixelFormat format;
+
+        StreamKey(Rectangle area, Dimension outputSize, PixelFormat format) {
+            this.area = new Rectangle(area);
+            this.outputSize = new Dimension(outputSize);
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StreamKey)) {
+                return false;
+            }
+            StreamKey other = (StreamKey) o;
+            return area.equals(other.area) && outputSize.equals(other.outputSize) && format == other.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return (area.hashCode() * 31 + outputSize.hashCode()) * 31 + format.hashCode();
+        }
+    }
+}
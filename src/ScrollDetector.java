@@ -0,0 +1,131 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 滚动检测：在变化区域内比较相邻两帧的行（或列）哈希，找出整体平移的距离，
+ * 再逐像素确认哪些行确实只是平移，生成对应的复制操作。
+ * 先检测垂直滚动，找不到时再检测水平滚动，实例不是线程安全的
+ */
+public class ScrollDetector {
+    // 至少连续这么多行（列）平移才值得生成复制操作
+    private static final int MIN_LINES = 16;
+
+    private final Map<Integer, Integer> lineIndex = new HashMap<>();
+    private int[] previousHashes = new int[0];
+    private int[] currentHashes = new int[0];
+    private int[] votes = new int[0];
+
+    /**
+     * @param previous 上一帧的像素
+     * @param current 当前帧的像素
+     * @param width 每行的像素数
+     * @param area 需要检测的区域（通常是变化瓦片的外接矩形）
+     * @return 复制操作，须按顺序执行；没有检测到滚动时返回空列表
+     */
+    public List<CopyRect> detect(int[] previous, int[] current, int width, Rectangle area) {
+        List<CopyRect> copies = new ArrayList<>();
+        if (area.height >= MIN_LINES * 2) {
+            detect(previous, current, width, area, true, copies);
+        }
+        if (copies.isEmpty() && area.width >= MIN_LINES * 2) {
+            detect(previous, current, width, area, false, copies);
+        }
+        return copies;
+    }
+
+    /**
+     * 行和列用同一套逻辑处理：vertical 为 true 时“线”是行，否则是列
+     */
+    private void detect(int[] previous, int[] current, int width, Rectangle area, boolean vertical,
+                        List<CopyRect> copies) {
+        int lines = vertical ? area.height : area.width;
+        int length = vertical ? area.width : area.height;
+        int base = area.y * width + area.x;
+        int lineStride = vertical ? width : 1;
+        int pixelStride = vertical ? 1 : width;
+        if (previousHashes.length < lines) {
+            previousHashes = new int[lines];
+            currentHashes = new int[lines];
+        }
+        for (int i = 0; i < lines; i++) {
+            previousHashes[i] = hash(previous, base + i * lineStride, pixelStride, length);
+            currentHashes[i] = hash(current, base + i * lineStride, pixelStride, length);
+        }
+
+        // 上一帧中只出现一次的线才参与投票，空白线到处都能匹配，不说明任何问题
+        lineIndex.clear();
+        for (int i = 0; i < lines; i++) {
+            Integer seen = lineIndex.put(previousHashes[i], i);
+            if (seen != null) {
+                lineIndex.put(previousHashes[i], -1);
+            }
+        }
+        if (votes.length < lines * 2 + 1) {
+            votes = new int[lines * 2 + 1];
+        }
+        Arrays.fill(votes, 0, lines * 2 + 1, 0);
+        int best = 0;
+        for (int i = 0; i < lines; i++) {
+            Integer j = lineIndex.get(currentHashes[i]);
+            if (j != null && j >= 0 && j != i) {
+                int v = ++votes[i - j + lines];
+                if (v > votes[best + lines]) {
+                    best = i - j;
+                }
+            }
+        }
+        if (best == 0 || votes[best + lines] < MIN_LINES / 2) {
+            return;
+        }
+
+        // 按投票得到的平移距离逐线确认，连续相同的线合并为一个复制操作
+        int shift = best;
+        int first = copies.size();
+        int runStart = -1;
+        int from = Math.max(0, shift);
+        int to = Math.min(lines, lines + shift);
+        for (int i = from; i <= to; i++) {
+            boolean same = i < to && currentHashes[i] == previousHashes[i - shift]
+                    && linesEqual(current, previous, base + i * lineStride, base + (i - shift) * lineStride,
+                            pixelStride, length);
+            if (same && runStart < 0) {
+                runStart = i;
+            } else if (!same && runStart >= 0) {
+                if (i - runStart >= MIN_LINES) {
+                    copies.add(vertical
+                            ? new CopyRect(new Rectangle(area.x, area.y + runStart - shift, area.width, i - runStart),
+                                    area.x, area.y + runStart)
+                            : new CopyRect(new Rectangle(area.x + runStart - shift, area.y, i - runStart, area.height),
+                                    area.x + runStart, area.y));
+                }
+                runStart = -1;
+            }
+        }
+        // 向后平移时先复制靠后的段，避免覆盖其他段尚未复制的源区域
+        if (shift > 0) {
+            Collections.reverse(copies.subList(first, copies.size()));
+        }
+    }
+
+    private static int hash(int[] pixels, int offset, int stride, int length) {
+        int h = 1;
+        for (int k = 0; k < length; k++) {
+            h = 31 * h + pixels[offset + k * stride];
+        }
+        return h;
+    }
+
+    private static boolean linesEqual(int[] a, int[] b, int offsetA, int offsetB, int stride, int length) {
+        for (int k = 0; k < length; k++) {
+            if (a[offsetA + k * stride] != b[offsetB + k * stride]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
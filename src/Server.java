@@ -1,33 +1,63 @@
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 远程桌面服务端
  */
 public class Server {
+    // 停止时等待任务结束的最长时间
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+    
     private ServerSocket serverSocket;
-    private ScreenCapture screenCapture;
-    private ImageCompressor imageCompressor;
-    private boolean running = false;
+    private ScreenStreams streams;
+    private ExecutorService executor;
+    private Set<ServerHandler> handlers = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = false;
     
     public Server(int port) throws Exception {
         serverSocket = new ServerSocket(port);                  // 监听 8888 端口
-        screenCapture = new ScreenCapture();                    // 创建 Robot，准备截屏
-        imageCompressor = new ImageCompressor();                // 准备 JPEG 压缩器
+        streams = new ScreenStreams(FrameSource.fromSystemProperty()); // 每个被观看的显示器（区域）一路截屏编码，同一区域的客户端共用；画面来源见 FrameSource
+        executor = ExecutionMode.fromSystemProperty("server");  // 处理器和发送循环的执行方式
+        Metrics.registerMBean();                                // 性能指标，用 jconsole 查看
         System.out.println("服务器启动，监听端口: " + port);
     }
     
+    /**
+     * 执行器能同时服务的连接数，见 ServerHandler.TASKS_PER_CLIENT
+     */
+    private int maxClients() {
+        int tasks = ExecutionMode.maxConcurrentTasks(executor);
+        return tasks == Integer.MAX_VALUE ? tasks : tasks / ServerHandler.TASKS_PER_CLIENT;
+    }
+    
     public void start() {
         running = true;
         while (running) {
             try {
                 Socket clientSocket = serverSocket.accept();        // 阻塞，直到有人连
                 System.out.println("客户端连接: " + clientSocket.getRemoteSocketAddress());
+                // 线程池已满时新连接的发送循环只能排队，客户端会看到冻结的画面，所以直接拒绝
+                if (handlers.size() >= maxClients()) {
+                    System.err.println("连接数已达执行器上限，拒绝: " + clientSocket.getRemoteSocketAddress());
+                    clientSocket.close();
+                    continue;
+                }
                 // 立刻为这个客户端单独创建一个“遥控处理器”
                 // 为每个客户端创建独立的处理器
-                ServerHandler handler = new ServerHandler(clientSocket, screenCapture, imageCompressor);
-                handler.start();    // ← 启动线程
+                ServerHandler handler = new ServerHandler(clientSocket, streams, executor);
+                handlers.add(handler);
+                executor.execute(() -> {    // ← 交给执行器运行
+                    try {
+                        handler.run();
+                    } finally {
+                        handlers.remove(handler);
+                    }
+                });
             } catch (Exception e) {
                 if (running) {
                     System.err.println("接受客户端连接时出错: " + e.getMessage());
@@ -36,6 +66,9 @@ public class Server {
         }
     }
     
+    /**
+     * 停止服务：关闭监听、断开所有客户端、停止截屏，并等待执行器中的任务结束
+     */
     public void stop() {
         running = false;
         try {
@@ -45,12 +78,33 @@ public class Server {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        for (ServerHandler handler : handlers) {
+            handler.close();
+        }
+        streams.stop();
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
     }
     
     public static void main(String[] args) {
         try {
             int port = args.length > 0 ? Integer.parseInt(args[0]) : Protocol.DEFAULT_PORT;
+            // 第二个参数为 nio 时使用非阻塞模式，适合大量观看端
+            if (args.length > 1 && "nio".equalsIgnoreCase(args[1])) {
+                NioServer server = new NioServer(port);
+                Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                server.start();
+                return;
+            }
             Server server = new Server(port);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
             server.start();
         } catch (Exception e) {
             System.err.println("服务器启动失败: " + e.getMessage());
@@ -1,76 +1,224 @@
 import java.awt.*;
-import java.awt.event.InputEvent;
-import java.awt.image.BufferedImage;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * 服务器处理器，处理单个客户端连接
  */
-public class ServerHandler extends Thread {
+public class ServerHandler implements Runnable {
+    // 等待新画面的超时时间，超时后重新检查连接状态
+    private static final long SUBSCRIPTION_POLL_MILLIS = 500;
+    // 每个连接在执行器中长期占用的任务数：处理命令、发送画面、发送指针位置
+    public static final int TASKS_PER_CLIENT = 3;
+    
     private Socket socket;
-    private ScreenCapture screenCapture;
-    private ImageCompressor imageCompressor;
-    private Robot robot;
-    private boolean running = true;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private ScreenStreams streams;
+    private ExecutorService executor;
+    private InputInjector inputInjector;
+    private RateController rateController = new RateController();
+    private int codecMask;
+    // 客户端请求观看的显示器和区域，由命令线程设置，发送线程据此切换订阅
+    private volatile int display = 0;
+    private volatile Rectangle area;
+    private volatile Dimension viewport = new Dimension();  // 客户端窗口大小，0表示不缩放
+    private volatile PixelFormat pixelFormat = PixelFormat.TRUE_COLOR;
+    private volatile ScreenBroadcaster.Subscription subscription;
+    private volatile boolean running = true;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private ChunkedOutput output;       // 握手之后的所有消息都经由它写出
+    private SessionRecorder recorder;   // 未开启会话录像时为null
+    // 客户端区域缓存的镜像，只由发送线程使用；命令线程收到 CMD_CACHE_RESET 时设置标志，由发送线程清空
+    private final TileCache<Void> tileCache = new TileCache<>(Protocol.TILE_CACHE_BYTES);
+    private volatile boolean cacheResetRequested = false;
     
-    public ServerHandler(Socket socket, ScreenCapture screenCapture, ImageCompressor imageCompressor) throws IOException, AWTException {
+    public ServerHandler(Socket socket, ScreenStreams streams, ExecutorService executor) throws AWTException {
         this.socket = socket;
-        this.screenCapture = screenCapture;
-        this.imageCompressor = imageCompressor;
-        this.robot = new Robot(); // 创建 Robot 实例，用于模拟输入
-
-        // 初始化输入输出流   先创建 ObjectOutputStream，再创建 ObjectInputStream
-        oos = new ObjectOutputStream(socket.getOutputStream());
-        oos.flush();  // 强制把 Header 推出去
-        ois = new ObjectInputStream(socket.getInputStream());
-        
-        // 发送屏幕尺寸信息
-        Dimension screenSize = screenCapture.getScreenSize();
-        oos.writeInt(screenSize.width);
-        oos.writeInt(screenSize.height);
-        oos.flush();
+        this.streams = streams;
+        this.executor = executor;
+        this.inputInjector = new InputInjector(streams.getSource()); // 画面来源是本机桌面时创建 Robot 实例，用于模拟输入
     }
     
     @Override
     public void run() {
-        // 启动屏幕传输线程     开一个子线程一直发屏幕
-        Thread screenThread = new Thread(this::sendScreenLoop);
-        screenThread.start();
+        // 握手在执行器线程中完成，不阻塞服务端的 accept 循环
+        try {
+            handshake();
+        } catch (IOException e) {
+            System.err.println("握手时出错: " + e.getMessage());
+            close();
+            return;
+        }
         
-        // 处理客户端命令     当前线程（ServerHandler 主线程）专门收命令
+        // 启动屏幕传输任务     由执行器运行，一直发屏幕
+        executor.execute(this::sendScreenLoop);
+        // 鼠标指针位置单独发送，不排在画面后面
+        executor.execute(this::sendCursorLoop);
+        
+        // 处理客户端命令     当前任务专门收命令
         handleCommands();
     }
     
+    /**
+     * 初始化输入输出流，完成握手并发送显示器列表
+     */
+    private void handshake() throws IOException {
+        // 初始化输入输出流
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        
+        // 握手：校验魔数，协商双方都支持的最高版本和编解码器
+        socket.setSoTimeout(Protocol.HANDSHAKE_TIMEOUT);
+        if (in.readInt() != Protocol.MAGIC) {
+            throw new IOException("握手失败：不是远程桌面客户端");
+        }
+        int version = Protocol.negotiateVersion(in.readUnsignedByte());
+        if (version == 0) {
+            out.writeByte(0);
+            out.flush();
+            throw new IOException("握手失败：客户端协议版本过低");
+        }
+        codecMask = FrameCodecs.negotiate(in.readUnsignedByte());
+        out.writeByte(version);
+        out.writeByte(codecMask);
+        socket.setSoTimeout(0);
+        
+        // 发送显示器列表，默认观看主显示器
+        List<Rectangle> displays = streams.getDisplays();
+        out.writeByte(displays.size());
+        for (Rectangle bounds : displays) {
+            out.writeInt(bounds.x);
+            out.writeInt(bounds.y);
+            out.writeInt(bounds.width);
+            out.writeInt(bounds.height);
+        }
+        out.flush();
+        output = new ChunkedOutput(out);
+        area = streams.resolve(0, new Rectangle());
+        inputInjector.setOrigin(area.getLocation());
+        recorder = SessionRecorder.fromSystemProperty(streams, String.valueOf(socket.getRemoteSocketAddress()));
+        inputInjector.setRecorder(recorder);
+    }
+    
     /**
      * 循环发送屏幕图像
      */
     private void sendScreenLoop() {
+        // 截屏和编码由广播器统一完成，这里只负责把最新画面写给本客户端
+        Rectangle subscribed = null;
+        Dimension subscribedSize = null;
+        PixelFormat subscribedFormat = null;
         try {
             while (running && !socket.isClosed()) {
-                // 捕获屏幕
-                BufferedImage image = screenCapture.captureScreen();
+                // 客户端切换了画面、改变了窗口大小或颜色深度：换订阅，先告知新区域，之后的帧都属于新区域
+                Rectangle requested = area;
+                Dimension outputSize = outputSize(requested);
+                PixelFormat format = pixelFormat;
+                if (!requested.equals(subscribed) || !outputSize.equals(subscribedSize) || format != subscribedFormat
+                        || subscription.isClosed()) {
+                    switchStream(requested, outputSize, format);
+                    subscribed = requested;
+                    subscribedSize = outputSize;
+                    subscribedFormat = format;
+                }
                 
-                // 压缩图像
-                byte[] imageData = imageCompressor.compressImage(image);
+                // 按客户端的确认情况控制发送节奏，期间产生的帧会合并为最新画面
+                rateController.awaitSendSlot(SUBSCRIPTION_POLL_MILLIS);
+                if (rateController.millisUntilNextFrame(System.currentTimeMillis()) > 0) {
+                    continue;
+                }
+                subscription.setPreferredQuality(rateController.getQuality());
+                if (cacheResetRequested) {
+                    resetCache();
+                }
                 
-                // 发送图像数据
-                synchronized (oos) {
-                    oos.writeInt(imageData.length);
-                    oos.write(imageData);
-                    oos.flush();
+                EncodedFrame frame = subscription.next(SUBSCRIPTION_POLL_MILLIS);
+                if (frame == null) {
+                    continue;   // 超时，或订阅因切换画面被关闭
                 }
+                // 客户端已缓存的区域只发引用
+                frame = frame.withCachedTiles(tileCache);
                 
-                // 控制帧率
-                Thread.sleep(Protocol.FRAME_INTERVAL); //FPS，每秒发送多少张高清截图
+                // 发送图像数据，切块写出，期间的指针位置插在块之间
+                long sendStart = System.nanoTime();
+                int bytes = output.sendFrame(frame);
+                Metrics.SEND.recordSince(sendStart);
+                Metrics.SEND_BYTES.add(bytes);
+                rateController.onFrameSent((int) frame.getSequence(), bytes, System.currentTimeMillis());
             }
         } catch (Exception e) {
             System.err.println("发送屏幕数据时出错: " + e.getMessage());
-            running = false;
+            // 命令线程还阻塞在读取上，由这里关闭连接，及时释放录像和执行器的任务
+            close();
+        } finally {
+            if (subscription != null) {
+                subscription.close();
+            }
+        }
+        //每帧：取出自上次发送以来的变化 → 发送
+    }
+    
+    /**
+     * 指针位置变化时发送 MSG_CURSOR（相对于当前画面区域）；等待超时后也重新检查，以便切换区域后更新
+     * 单独占用执行器的一个任务（TASKS_PER_CLIENT 中的一个），指针不必等画面编码完成
+     */
+    private void sendCursorLoop() {
+        CursorTracker cursorTracker = streams.getCursorTracker();
+        long seenVersion = -1;
+        Point sent = null;
+        try {
+            while (running && !socket.isClosed()) {
+                seenVersion = cursorTracker.awaitChange(seenVersion, SUBSCRIPTION_POLL_MILLIS);
+                Point position = cursorTracker.getPosition();
+                if (position == null) {
+                    continue;
+                }
+                Rectangle current = area;
+                position.translate(-current.x, -current.y);
+                if (position.equals(sent)) {
+                    continue;
+                }
+                output.sendControl(ByteBuffer.allocate(12)
+                        .putInt(Protocol.MSG_CURSOR).putInt(position.x).putInt(position.y).array());
+                sent = position;
+            }
+        } catch (Exception e) {
+            System.err.println("发送鼠标位置时出错: " + e.getMessage());
+            // 同上，不等命令线程发现连接已断
+            close();
+        }
+    }
+    
+    /**
+     * 客户端的区域缓存与镜像不一致：两边都清空（MSG_CACHE_RESET 之后的帧按空缓存计算），并重新发送完整画面
+     */
+    private void resetCache() throws IOException {
+        cacheResetRequested = false;
+        tileCache.clear();
+        output.sendInOrder(ByteBuffer.allocate(4).putInt(Protocol.MSG_CACHE_RESET).array());
+        subscription.resync();
+    }
+    
+    /**
+     * 改为订阅新区域的画面，并发送 MSG_STREAM_INFO
+     */
+    private void switchStream(Rectangle requested, Dimension outputSize, PixelFormat format)
+            throws AWTException, IOException {
+        if (subscription != null) {
+            subscription.close();
         }
-        //每帧：截图 → 压缩 → 发送“长度+数据”
+        subscription = streams.subscribe(requested, outputSize, format, codecMask);
+        if (recorder != null) {
+            recorder.follow(display, requested, outputSize, format);
+        }
+        rateController.reset();
+        output.sendInOrder(ByteBuffer.allocate(32).putInt(Protocol.MSG_STREAM_INFO).putInt(display)
+                .putInt(requested.x).putInt(requested.y).putInt(requested.width).putInt(requested.height)
+                .putInt(outputSize.width).putInt(outputSize.height).array());
     }
     
     /**
@@ -79,41 +227,24 @@ public class ServerHandler extends Thread {
     private void handleCommands() {
         try {
             while (running && !socket.isClosed()) {
-                int command = ois.readInt();    // 阻塞等待客户端发命令
+                int command = in.readUnsignedByte();    // 阻塞等待客户端发命令
                 
-                switch (command) {
-                    case Protocol.CMD_MOUSE_MOVE:
-                        MouseEventData mouseMove = (MouseEventData) ois.readObject();
-                        robot.mouseMove(mouseMove.getX(), mouseMove.getY());
-                        break;
-                        
-                    case Protocol.CMD_MOUSE_PRESS:
-                        MouseEventData mousePress = (MouseEventData) ois.readObject();
-                        int button = mousePress.getButton();
-                        int javaButton = convertButton(button);
-                        robot.mousePress(javaButton);
-                        break;
-                        
-                    case Protocol.CMD_MOUSE_RELEASE:
-                        MouseEventData mouseRelease = (MouseEventData) ois.readObject();
-                        int releaseButton = convertButton(mouseRelease.getButton());
-                        robot.mouseRelease(releaseButton);
-                        break;
-                        
-                    case Protocol.CMD_MOUSE_WHEEL:
-                        MouseEventData mouseWheel = (MouseEventData) ois.readObject();
-                        robot.mouseWheel(mouseWheel.getWheelRotation());
-                        break;
-                        
-                    case Protocol.CMD_KEY_PRESS:
-                        KeyEventData keyPress = (KeyEventData) ois.readObject();
-                        robot.keyPress(keyPress.getKeyCode());
-                        break;
-                        
-                    case Protocol.CMD_KEY_RELEASE:
-                        KeyEventData keyRelease = (KeyEventData) ois.readObject();
-                        robot.keyRelease(keyRelease.getKeyCode());
-                        break;
+                if (command == Protocol.CMD_FRAME_ACK) {
+                    ScreenBroadcaster.Subscription current = subscription;
+                    rateController.onAck(Protocol.readVarInt(in), System.currentTimeMillis(),
+                            current != null ? current.getEncodeMillis() : 0);
+                } else if (command == Protocol.CMD_SELECT_STREAM) {
+                    selectStream();
+                } else if (command == Protocol.CMD_VIEWPORT) {
+                    selectViewport();
+                } else if (command == Protocol.CMD_CACHE_RESET) {
+                    cacheResetRequested = true;
+                    wakeSendLoop();
+                } else if (command == Protocol.CMD_PIXEL_FORMAT) {
+                    selectPixelFormat();
+                } else {
+                    inputInjector.execute(command, in);
+                    streams.onActivity();
                 }
             }
         } catch (Exception e) {
@@ -124,18 +255,60 @@ public class ServerHandler extends Thread {
     }
     
     /**
-     * 转换按钮代码（1=左键, 2=中键, 3=右键）
+     * 处理切换画面的命令：之后的鼠标坐标相对于新区域，发送线程在下次循环时切换订阅
+     */
+    private void selectStream() throws IOException {
+        int requestedDisplay = Protocol.readVarInt(in);
+        Rectangle region = new Rectangle(Protocol.readVarInt(in), Protocol.readVarInt(in),
+                Protocol.readVarInt(in), Protocol.readVarInt(in));
+        Rectangle requested = streams.resolve(requestedDisplay, region);
+        if (requested.equals(area)) {
+            return;
+        }
+        display = requestedDisplay >= 0 && requestedDisplay < streams.getDisplays().size() ? requestedDisplay : 0;
+        area = requested;
+        inputInjector.setOrigin(requested.getLocation());
+        wakeSendLoop();
+    }
+    
+    /**
+     * 处理窗口大小命令：编码尺寸变化时发送线程切换到对应尺寸的画面
      */
-    private int convertButton(int button) {
-        switch (button) {
-            case 1:
-                return InputEvent.BUTTON1_MASK;
-            case 2:
-                return InputEvent.BUTTON2_MASK;
-            case 3:
-                return InputEvent.BUTTON3_MASK;
-            default:
-                return InputEvent.BUTTON1_MASK;
+    private void selectViewport() throws IOException {
+        Dimension requested = new Dimension(Protocol.readVarInt(in), Protocol.readVarInt(in));
+        Dimension before = outputSize(area);
+        viewport = requested;
+        if (!outputSize(area).equals(before)) {
+            wakeSendLoop();
+        }
+    }
+    
+    /**
+     * 处理像素格式命令：格式变化时发送线程切换到对应深度的画面
+     */
+    private void selectPixelFormat() throws IOException {
+        PixelFormat requested = PixelFormat.fromId(Protocol.readVarInt(in));
+        if (requested != pixelFormat) {
+            pixelFormat = requested;
+            wakeSendLoop();
+        }
+    }
+    
+    /**
+     * 按客户端当前的窗口大小计算区域的编码尺寸
+     */
+    private Dimension outputSize(Rectangle captureArea) {
+        Dimension size = viewport;
+        return streams.outputSize(captureArea, size.width, size.height);
+    }
+    
+    /**
+     * 关闭当前订阅，唤醒可能正在等待旧画面新帧的发送线程
+     */
+    private void wakeSendLoop() {
+        ScreenBroadcaster.Subscription current = subscription;
+        if (current != null) {
+            current.close();
         }
     }
     
@@ -144,9 +317,12 @@ public class ServerHandler extends Thread {
      */
     public void close() {
         running = false;
+        if (recorder != null) {
+            recorder.close();
+        }
         try {
-            if (ois != null) ois.close();
-            if (oos != null) oos.close();
+            if (in != null) in.close();
+            if (out != null) out.close();
             if (socket != null) socket.close();
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,304 @@
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 服务端的会话录像：跟随一个客户端所看的画面，把编码好的帧、鼠标指针位置和客户端的输入写入录像文件。
+ * 帧取自广播器的订阅，不重新截屏编码；为了能快速定位，录像线程自己维护一份解码后的画面，
+ * 每隔 KEYFRAME_INTERVAL 把它编码成关键帧写入，而不是让广播器给所有客户端都发关键帧。
+ * 写文件由 RecordingWriter 的线程批量完成，磁盘跟不上时只丢录像记录（之后补一个关键帧），不影响画面发送。
+ * 启动服务端时用 -Dremote.record=目录 开启，每个客户端连接一个文件
+ */
+public class SessionRecorder implements Runnable {
+    public static final String PROPERTY = "remote.record";
+    // 关键帧间隔，定位时最多需要从关键帧快进这么久
+    private static final long KEYFRAME_INTERVAL = 10_000;
+    // 丢了记录、补写关键帧也失败时，隔这么久再试
+    private static final long KEYFRAME_RETRY = 1000;
+    private static final long POLL_MILLIS = 500;
+
+    private final ScreenStreams streams;
+    private final RecordingWriter writer;
+    private final Runnable cursorListener = () -> recordCursor(false);
+    private volatile Stream requested;                  // 客户端当前观看的画面
+    private volatile Stream recorded;                   // 正在录制的画面，指针位置相对于它
+    private volatile ScreenBroadcaster.Subscription subscription;
+    private volatile boolean running = true;
+    private final Thread thread;
+    // 以下只由录像线程使用
+    private BufferedImage canvas;                       // 录像中当前的画面，收到关键帧之前为null
+    private long keyFrameDueAt = 0;
+    private boolean broken = false;                     // 上个关键帧之后丢过记录，增量帧不能再写
+    private Point recordedCursor;                       // 由本对象的锁保护
+
+    private SessionRecorder(ScreenStreams streams, RecordingWriter writer) {
+        this.streams = streams;
+        this.writer = writer;
+        this.thread = new Thread(this, "session-recorder");
+        streams.getCursorTracker().addListener(cursorListener);
+        thread.start();
+    }
+
+    /**
+     * 按系统属性为一个客户端连接创建录像，文件名含开始时间和客户端地址
+     * @param client 客户端地址
+     * @return 未开启录像或无法创建文件时返回null
+     */
+    public static SessionRecorder fromSystemProperty(ScreenStreams streams, String client) {
+        String directory = System.getProperty(PROPERTY);
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+        String name = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date())
+                + "-" + client.replaceAll("[^0-9A-Za-z.]+", "_") + ".rdr";
+        try {
+            Path dir = Files.createDirectories(Paths.get(directory.trim()));
+            Path path = dir.resolve(name);
+            SessionRecorder recorder = new SessionRecorder(streams, new RecordingWriter(path));
+            System.out.println("录制会话: " + path);
+            return recorder;
+        } catch (IOException e) {
+            System.err.println("无法创建录像文件: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 客户端切换了画面：录像随之改为订阅该画面，从它的下一个关键帧开始录
+     */
+    public void follow(int display, Rectangle area, Dimension outputSize, PixelFormat format) {
+        requested = new Stream(display, area, outputSize, format);
+        ScreenBroadcaster.Subscription current = subscription;
+        if (current != null) {
+            current.close();    // 唤醒可能正在等待旧画面新帧的录像线程
+        }
+    }
+
+    /**
+     * 记录一条已执行的鼠标命令（坐标相对于客户端所看的画面）
+     */
+    public void recordMouse(int command, MouseEventData data) {
+        recordInput(command, data::writeTo);
+    }
+
+    /**
+     * 记录一条已执行的键盘命令
+     */
+    public void recordKey(int command, KeyEventData data) {
+        recordInput(command, data::writeTo);
+    }
+
+    private void recordInput(int command, InputFields fields) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(command);
+            fields.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);    // 写入内存不会出错
+        }
+        writer.append(RecordingWriter.REC_INPUT, bytes.toByteArray());
+    }
+
+    /**
+     * 停止录像（不阻塞）：录像线程退出时写出剩余记录并关闭文件
+     */
+    public void close() {
+        running = false;
+        streams.getCursorTracker().removeListener(cursorListener);
+        ScreenBroadcaster.Subscription current = subscription;
+        if (current != null) {
+            current.close();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        Stream subscribed = null;
+        try {
+            while (running) {
+                Stream current = requested;
+                if (current == null) {
+                    synchronized (this) {
+                        if (running && requested == null) {
+                            wait(POLL_MILLIS);
+                        }
+                    }
+                    continue;
+                }
+                if (!current.equals(subscribed) || subscription.isClosed()) {
+                    if (subscription != null) {
+                        subscription.close();
+                    }
+                    subscription = streams.subscribe(current.area, current.outputSize, current.format, FrameCodecs.SUPPORTED);
+                    subscribed = current;
+                    recorded = current;
+                    canvas = null;      // 新订阅从关键帧开始
+                    if (!running) {
+                        break;          // 与 close() 交错时，新订阅没有被关闭
+                    }
+                }
+                EncodedFrame frame = subscription.next(POLL_MILLIS);
+                if (frame != null) {
+                    record(frame, subscribed);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("录制会话时出错: " + e.getMessage());
+        } finally {
+            if (subscription != null) {
+                subscription.close();
+            }
+            writer.close();
+        }
+    }
+
+    /**
+     * 更新录像中的画面，写入增量帧；到了关键帧间隔（或之前丢过记录）时改为写入当前画面的关键帧
+     */
+    private void record(EncodedFrame frame, Stream stream) throws IOException {
+        apply(frame);
+        if (canvas == null) {
+            return;     // 还没收到关键帧
+        }
+        long now = System.currentTimeMillis();
+        if (!frame.isKeyFrame() && now < keyFrameDueAt) {
+            if (!broken && !writer.append(RecordingWriter.REC_FRAME, frame.toBuffers())) {
+                broken = true;
+                keyFrameDueAt = now + KEYFRAME_RETRY;
+            }
+            return;
+        }
+        EncodedFrame keyFrame = frame.isKeyFrame() ? frame : encodeKeyFrame(frame.getSequence(), stream.format);
+        List<ByteBuffer> payload = new ArrayList<>();
+        payload.add(stream.toBuffer());
+        payload.addAll(keyFrame.toBuffers());
+        if (writer.append(RecordingWriter.REC_KEYFRAME, payload)) {
+            broken = false;
+            keyFrameDueAt = now + KEYFRAME_INTERVAL;
+            recordCursor(true);     // 从关键帧开始回放时也有指针位置
+        } else {
+            broken = true;
+            keyFrameDueAt = now + KEYFRAME_RETRY;
+        }
+    }
+
+    /**
+     * 把一帧按顺序解码到录像的画面上（在录像线程中逐个解码，不占用编码工作线程）
+     */
+    private void apply(EncodedFrame frame) throws IOException {
+        Dimension size = frame.getKeyFrameSize();
+        if (size != null && (canvas == null || canvas.getWidth() != size.width || canvas.getHeight() != size.height)) {
+            canvas = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        }
+        if (canvas == null) {
+            return;
+        }
+        for (EncodedFrame.Patch patch : frame.getPatches()) {
+            for (CopyRect copy : patch.getCopies()) {
+                copy.apply(canvas);
+            }
+            for (EncodedFrame.Tile tile : patch.getTiles()) {
+                FrameCodecs.forCurrentThread(tile.getCodec())
+                        .decode(tile.getData(), tile.getOffset(), tile.getLength(), canvas, tile.getBounds());
+            }
+        }
+    }
+
+    /**
+     * 在录像线程中把当前画面编码为关键帧
+     */
+    private EncodedFrame encodeKeyFrame(long sequence, PixelFormat format) throws IOException {
+        Rectangle whole = new Rectangle(0, 0, canvas.getWidth(), canvas.getHeight());
+        List<EncodedFrame.Tile> tiles = new ArrayList<>();
+        for (Rectangle stripe : ScreenBroadcaster.splitStripes(Collections.singletonList(whole))) {
+            tiles.add(ScreenBroadcaster.encodeTile(canvas, stripe, FrameCodecs.SUPPORTED, Protocol.IMAGE_QUALITY,
+                    format));
+        }
+        return new EncodedFrame(sequence, whole.getSize(), tiles);
+    }
+
+    /**
+     * 指针位置（相对于录制的画面区域）变化时写入
+     * @param force 位置没变也写入（关键帧之后）
+     */
+    private synchronized void recordCursor(boolean force) {
+        Stream stream = recorded;
+        Point position = streams.getCursorTracker().getPosition();
+        if (stream == null || position == null) {
+            return;
+        }
+        position.translate(-stream.area.x, -stream.area.y);
+        if (!force && position.equals(recordedCursor)) {
+            return;
+        }
+        if (writer.append(RecordingWriter.REC_CURSOR, ByteBuffer.allocate(8).putInt(position.x).putInt(position.y).array())) {
+            recordedCursor = position;
+        }
+    }
+
+    private interface InputFields {
+        void writeTo(DataOutput out) throws IOException;
+    }
+
+    /**
+     * 一路画面：显示器、捕获区域和编码尺寸
+     */
+    private static final class Stream {
+        private final int display;
+        private final Rectangle area;
+        private final Dimension outputSize;
+        private final PixelFormat format;
+
+        Stream(int display, Rectangle area, Dimension outputSize, PixelFormat format) {
+            this.display = display;
+            this.area = new Rectangle(area);
+            this.outputSize = new Dimension(outputSize);
+            this.format = format;
+        }
+
+        /**
+         * 关键帧记录开头的画面信息，字段与 MSG_STREAM_INFO 相同
+         */
+        ByteBuffer toBuffer() {
+            ByteBuffer buffer = ByteBuffer.allocate(RecordingWriter.STREAM_INFO_LENGTH);
+            buffer.putInt(display).putInt(area.x).putInt(area.y).putInt(area.width).putInt(area.height)
+                    .putInt(outputSize.width).putInt(outputSize.height).flip();
+            return buffer;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stream)) {
+                return false;
+            }
+            Stream other = (Stream) o;
+            return display == other.display && area.equals(other.area) && outputSize.equals(other.outputSize)
+                    && format == other.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((display * 31 + area.hashCode()) * 31 + outputSize.hashCode()) * 31 + format.hashCode();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import javax.swing.JComponent;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 客户端画面左上角的性能统计：每秒从 Metrics 取一次快照，显示这一秒内的帧率、流量和耗时分布，
+ * 用于现场判断卡顿出在网络、解码还是绘制。只在界面线程中使用
+ */
+public class StatsOverlay {
+    private static final int REFRESH_MILLIS = 1000;
+    private static final int MARGIN = 6;
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 160);
+
+    private final JComponent target;
+    private final Timer timer;
+    private List<String> lines = Collections.emptyList();
+    private Rectangle paintedBounds;        // 上次画出的范围，为null表示没有画
+    private long lastTime;
+    private long lastShown, lastReceived, lastSkipped, lastBytes;
+    private Metrics.Snapshot lastDecode, lastPaint, lastInput;
+
+    public StatsOverlay(JComponent target) {
+        this.target = target;
+        this.timer = new Timer(REFRESH_MILLIS, e -> refresh());
+    }
+
+    public boolean isVisible() {
+        return timer.isRunning();
+    }
+
+    public void setVisible(boolean visible) {
+        if (visible == isVisible()) return;
+        if (visible) {
+            lines = Collections.singletonList("统计中...");
+            takeBaseline();
+            timer.start();
+        } else {
+            timer.stop();
+            lines = Collections.emptyList();
+        }
+        repaintArea();
+    }
+
+    private void takeBaseline() {
+        lastTime = System.nanoTime();
+        lastShown = Metrics.FRAMES_SHOWN.get();
+        lastReceived = Metrics.FRAMES_RECEIVED.get();
+        lastSkipped = Metrics.FRAMES_SKIPPED.get();
+        lastBytes = Metrics.RECEIVE_BYTES.get();
+        lastDecode = Metrics.DECODE.snapshot();
+        lastPaint = Metrics.PAINT.snapshot();
+        lastInput = Metrics.INPUT_DELAY.snapshot();
+    }
+
+    /**
+     * 与上一次快照相减，得到这段时间内的统计
+     */
+    private void refresh() {
+        double seconds = (System.nanoTime() - lastTime) / 1e9;
+        long shown = Metrics.FRAMES_SHOWN.get() - lastShown;
+        long received = Metrics.FRAMES_RECEIVED.get() - lastReceived;
+        long skipped = Metrics.FRAMES_SKIPPED.get() - lastSkipped;
+        long bytes = Metrics.RECEIVE_BYTES.get() - lastBytes;
+        Metrics.Snapshot decode = Metrics.DECODE.snapshot().since(lastDecode);
+        Metrics.Snapshot paint = Metrics.PAINT.snapshot().since(lastPaint);
+        Metrics.Snapshot input = Metrics.INPUT_DELAY.snapshot().since(lastInput);
+        takeBaseline();
+
+        List<String> text = new ArrayList<>();
+        text.add(String.format("帧率 %5.1f fps  收到 %5.1f  跳过 %d", shown / seconds, received / seconds, skipped));
+        text.add(String.format("接收 %7.1f KB/s", bytes / 1024.0 / seconds));
+        text.add(String.format("解码 p50 %5.1f  p99 %5.1f ms", millis(decode, 0.5), millis(decode, 0.99)));
+        text.add(String.format("绘制 p50 %5.1f  p99 %5.1f ms", millis(paint, 0.5), millis(paint, 0.99)));
+        text.add(String.format("输入 p50 %5.1f  p99 %5.1f ms", millis(input, 0.5), millis(input, 0.99)));
+        lines = text;
+        repaintArea();
+    }
+
+    /**
+     * 只重绘统计的旧范围和新范围，画面其余部分不动
+     */
+    private void repaintArea() {
+        Rectangle area = boundsOf(target.getFontMetrics(FONT));
+        if (paintedBounds != null) {
+            area = area == null ? paintedBounds : area.union(paintedBounds);
+        }
+        if (area != null) {
+            target.repaint(area);
+        }
+    }
+
+    /**
+     * 统计文字加边距的范围，没有文字时返回null
+     */
+    private Rectangle boundsOf(FontMetrics metrics) {
+        if (lines.isEmpty()) {
+            return null;
+        }
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        return new Rectangle(0, 0, width + MARGIN * 2, metrics.getHeight() * lines.size() + MARGIN * 2);
+    }
+
+    private static double millis(Metrics.Snapshot snapshot, double quantile) {
+        return snapshot.getPercentile(quantile) / 1000.0;
+    }
+
+    /**
+     * 在目标组件的左上角画出统计
+     */
+    public void paint(Graphics g) {
+        g.setFont(FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        paintedBounds = boundsOf(metrics);
+        if (paintedBounds == null) {
+            return;
+        }
+        g.setColor(BACKGROUND);
+        g.fillRect(paintedBounds.x, paintedBounds.y, paintedBounds.width, paintedBounds.height);
+        g.setColor(Color.WHITE);
+        int y = MARGIN + metrics.getAscent();
+        for (String line : lines) {
+            g.drawString(line, MARGIN, y);
+            y += metrics.getHeight();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Robot;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 合成画面：不需要桌面，按时间生成一个显示器的画面，用于压测。桌面背景上有一个窗口，窗口内容随模式变化：
+ * TEXT 为匀速向上滚动的文字（服务端能检测为滚动，只发复制操作和新露出的行），
+ * VIDEO 为每帧都变的彩色噪声和渐变（只能用JPEG，最费编码和带宽），STATIC 为静止的文字（截屏后画面不变）。
+ * 画面只由时间决定，同一时刻截取的不同区域拼起来是同一个画面。指针沿固定轨迹移动（STATIC 时不动）
+ */
+public class SyntheticSource implements FrameSource {
+    public static final int DEFAULT_WIDTH = 1920;
+    public static final int DEFAULT_HEIGHT = 1080;
+
+    public enum Pattern {
+        TEXT,
+        VIDEO,
+        STATIC
+    }
+
+    private static final int LINE_HEIGHT = 18;
+    private static final int TITLE_HEIGHT = 28;
+    // 文字每秒滚动的像素数
+    private static final int SCROLL_SPEED = 120;
+    // 噪声的块大小（像素），太小的块在JPEG中全是高频，不像视频
+    private static final int NOISE_BLOCK = 4;
+    private static final String[] WORDS = {
+            "remote", "desktop", "frame", "tile", "encode", "decode", "socket", "buffer", "stream", "client",
+            "server", "cursor", "scroll", "pixel", "latency", "budget", "queue", "chunk", "cache", "render"
+    };
+
+    private final Pattern pattern;
+    private final Rectangle display;
+    private final Rectangle window;         // 窗口内容区域，虚拟桌面坐标
+    private final BufferedImage background; // 整个桌面的静止部分（含窗口边框）
+    private final BufferedImage page;       // TEXT/STATIC 的文字页，宽同窗口，TEXT 时循环滚动
+    private final long startMillis = System.currentTimeMillis();
+
+    public SyntheticSource(Pattern pattern, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("画面大小必须为正: " + width + "x" + height);
+        }
+        this.pattern = pattern;
+        this.display = new Rectangle(0, 0, width, height);
+        Rectangle frame = new Rectangle(width / 8, height / 10, width * 3 / 4, height * 4 / 5);
+        this.window = new Rectangle(frame.x, frame.y + TITLE_HEIGHT, frame.width, frame.height - TITLE_HEIGHT);
+        this.background = renderBackground(frame);
+        this.page = pattern == Pattern.VIDEO ? null : renderPage(window.width, window.height * 3);
+    }
+
+    private BufferedImage renderBackground(Rectangle frame) {
+        BufferedImage image = new BufferedImage(display.width, display.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0x2D5F8B));
+        g.fillRect(0, 0, display.width, display.height);
+        g.setColor(new Color(0xDDDDDD));
+        g.fillRect(frame.x, frame.y, frame.width, TITLE_HEIGHT);
+        g.setColor(Color.DARK_GRAY);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
+        g.drawString("synthetic " + pattern.name().toLowerCase(), frame.x + 10, frame.y + 19);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * 白底黑字的一页文字，内容由固定的随机种子决定
+     */
+    private static BufferedImage renderPage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 14));
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Random random = new Random(42);
+        for (int line = 0; line * LINE_HEIGHT < height; line++) {
+            StringBuilder text = new StringBuilder(String.format("%5d  ", line + 1));
+            int words = 3 + random.nextInt(12);
+            for (int i = 0; i < words; i++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            g.drawString(text.toString(), 8, line * LINE_HEIGHT + 14);
+        }
+        g.dispose();
+        return image;
+    }
+
+    @Override
+    public List<Rectangle> displayBounds() {
+        return Collections.singletonList(new Rectangle(display));
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area) {
+        return capture(area, null);
+    }
+
+    @Override
+    public boolean fillsTarget() {
+        return true;
+    }
+
+    @Override
+    public BufferedImage capture(Rectangle area, BufferedImage target) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        BufferedImage image = ScreenCapture.isReusable(target, area)
+                ? target : new BufferedImage(area.width, area.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.translate(-area.x, -area.y);
+        g.drawImage(background, 0, 0, null);
+        g.setClip(window);
+        if (pattern == Pattern.VIDEO) {
+            g.dispose();
+            renderNoise(image, area, elapsed / Protocol.FRAME_INTERVAL);
+            return image;
+        }
+        int scroll = pattern == Pattern.TEXT ? (int) (elapsed * SCROLL_SPEED / 1000 % page.getHeight()) : 0;
+        // 页尾接页首，循环滚动
+        g.drawImage(page, window.x, window.y - scroll, null);
+        g.drawImage(page, window.x, window.y - scroll + page.getHeight(), null);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * 在窗口与区域相交的部分画出第 frame 帧的噪声：按块的随机颜色叠加随时间移动的渐变
+     */
+    private void renderNoise(BufferedImage image, Rectangle area, long frame) {
+        Rectangle visible = window.intersection(area);
+        if (visible.isEmpty()) {
+            return;
+        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int shift = (int) (frame * 3);
+        for (int y = visible.y; y < visible.y + visible.height; y++) {
+            int row = (y - area.y) * area.width - area.x;
+            int blockY = (y - window.y) / NOISE_BLOCK;
+            for (int x = visible.x; x < visible.x + visible.width; x++) {
+                int blockX = (x - window.x) / NOISE_BLOCK;
+                // 按帧号和块坐标散列，同一时刻各区域的噪声一致
+                int h = (int) (frame * 0x9E3779B1L) ^ (blockX * 0x85EBCA6B) ^ (blockY * 0xC2B2AE35);
+                h ^= h >>> 15;
+                h *= 0x2C1B3C6D;
+                h ^= h >>> 13;
+                int gradient = (x + y + shift) & 0xFF;
+                int r = (gradient + (h & 0x3F)) & 0xFF;
+                int gr = ((gradient >> 1) + ((h >>> 8) & 0x3F)) & 0xFF;
+                int b = (255 - gradient + ((h >>> 16) & 0x3F)) & 0xFF;
+                pixels[row + x] = r << 16 | gr << 8 | b;
+            }
+        }
+    }
+
+    @Override
+    public Point getPointerLocation() {
+        if (pattern == Pattern.STATIC) {
+            return new Point(display.width / 2, display.height / 2);
+        }
+        double t = (System.currentTimeMillis() - startMillis) / 1000.0;
+        return new Point((int) (display.width / 2 + display.width / 3 * Math.sin(t * 0.7)),
+                (int) (display.height / 2 + display.height / 3 * Math.sin(t * 1.1)));
+    }
+
+    @Override
+    public Robot createRobot() {
+        return null;
+    }
+}
@@ -0,0 +1,144 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * 按内容哈希索引的区域缓存，按字节预算做LRU淘汰。
+ * 客户端用它保存解码后的区域（值为图像），服务端为每个客户端维护一份只有键的镜像（值为null）：
+ * 服务端按发送顺序、客户端按解码顺序对每个区域执行同样的操作（已有则 touch，否则 put），
+ * 两边的预算和淘汰规则相同，所以服务端总能知道客户端缓存里有什么，对已有的区域只发送引用。不是线程安全的
+ */
+public class TileCache<V> {
+    // 面积小于该值的区域不计算哈希、不缓存，引用省下的字节抵不上记账的开销
+    public static final int MIN_PIXELS = Protocol.TILE_SIZE * Protocol.TILE_SIZE;
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final ThreadLocal<int[]> ROW_BUFFERS = ThreadLocal.withInitial(() -> new int[0]);
+
+    private final long budget;
+    private final LinkedHashMap<Long, Entry<V>> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes = 0;
+
+    /**
+     * @param budget 所有区域解码后的像素最多占用的字节数
+     */
+    public TileCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 取出缓存的值并把它标为最近使用
+     * @return 不在缓存中时返回null；服务端镜像的值总是null，用 touch 判断
+     */
+    public V get(long hash) {
+        Entry<V> entry = entries.get(hash);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 是否在缓存中，在时标为最近使用
+     */
+    public boolean touch(long hash) {
+        return entries.get(hash) != null;
+    }
+
+    /**
+     * 放入一个区域，超出预算时淘汰最久未使用的；单个区域超过整个预算时不放入
+     * @param bytes 该区域占用的字节数，两端必须按同样的规则计算（见 pixelBytes）
+     */
+    public void put(long hash, V value, int bytes) {
+        if (bytes > budget) {
+            return;
+        }
+        Entry<V> old = entries.put(hash, new Entry<>(value, bytes));
+        if (old != null) {
+            usedBytes -= old.bytes;
+        }
+        usedBytes += bytes;
+        for (Iterator<Entry<V>> it = entries.values().iterator(); usedBytes > budget && it.hasNext(); ) {
+            usedBytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 区域解码后占用的字节数（每像素4字节）
+     */
+    public static int pixelBytes(Rectangle bounds) {
+        return bounds.width * bounds.height * 4;
+    }
+
+    /**
+     * 是否值得为该区域计算哈希
+     */
+    public static boolean isCacheable(Rectangle bounds) {
+        return bounds.width * bounds.height >= MIN_PIXELS;
+    }
+
+    /**
+     * 区域像素的64位哈希（含宽高，不含位置：内容移到别处也能命中），不会返回0（0表示不缓存）
+     */
+    public static long hash(BufferedImage image, Rectangle bounds) {
+        int width = bounds.width;
+        int[] row = ROW_BUFFERS.get();
+        if (row.length < width) {
+            row = new int[width];
+            ROW_BUFFERS.set(row);
+        }
+        long h = hashStart(width, bounds.height);
+        for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+            ColorPalette.readRow(image, bounds.x, y, width, row);
+            h = hashRow(h, row, width);
+        }
+        return hashEnd(h);
+    }
+
+    /**
+     * 逐行计算哈希（供已经在逐行读取像素的扫描顺便计算，见 ColorPalette.collect）：
+     * hashStart 之后按顺序对每行调用 hashRow，最后 hashEnd，结果与 hash 相同
+     */
+    static long hashStart(int width, int height) {
+        return ((long) width << 32 | height) * MULTIPLIER;
+    }
+
+    static long hashRow(long h, int[] row, int width) {
+        for (int x = 0; x < width; x++) {
+            h = Long.rotateLeft(h ^ ((row[x] & 0xFFFFFFL) * MULTIPLIER), 27) * 5 + 0x52DCE729;
+        }
+        return h;
+    }
+
+    static long hashEnd(long h) {
+        // 最后再混合一次，让各位都受所有像素影响
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int bytes;
+
+        Entry(V value, int bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+/**
+ * 编解码瓦片的工作线程：服务端并行编码一帧中的各个条带，客户端并行解码互不重叠的区域。
+ * 线程数默认为CPU核数，启动时可用 -Dremote.workers=N 指定，1 表示全部在调用线程中完成。
+ * 各线程的编解码器实例由 FrameCodecs.forCurrentThread 提供，彼此独立
+ */
+public final class TileWorkers {
+    public static final String PROPERTY = "remote.workers";
+    private static final int PARALLELISM =
+            Math.max(1, Integer.getInteger(PROPERTY, Runtime.getRuntime().availableProcessors()));
+    private static final ForkJoinPool POOL = PARALLELISM > 1
+            ? new ForkJoinPool(PARALLELISM, TileWorkers::newThread, null, false)
+            : null;
+
+    private TileWorkers() {
+    }
+
+    /**
+     * 并行执行的线程数
+     */
+    public static int parallelism() {
+        return PARALLELISM;
+    }
+
+    /**
+     * 执行所有任务并等待全部完成
+     * @return 各任务的结果，顺序与任务相同
+     * @throws IOException 任一任务抛出的异常（其余任务仍会执行完）
+     */
+    public static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (POOL == null || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+        try {
+            for (Future<T> future : POOL.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待编解码任务时被中断");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static IOException rethrow(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("tile-worker-" + thread.getPoolIndex());
+        return thread;
+    }
+}